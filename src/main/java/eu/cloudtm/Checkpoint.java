@@ -0,0 +1,185 @@
+package eu.cloudtm;
+
+import eu.cloudtm.analyzer.Analyzer;
+import eu.cloudtm.analyzer.CheckpointableAnalyzer;
+import eu.cloudtm.parser.ChunkedLogIterator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Periodically saves the progress of an analysis (the offset and line number where the parsing can resume, and the
+ * state of each analyzer) in a sidecar file ({@code <file>.lpcheckpoint}), so that an interrupted analysis can be
+ * resumed from the last checkpoint.
+ * <p/>
+ * The checkpoints are only taken in the chunk boundaries of the {@link ChunkedLogIterator} and, at most, once per
+ * interval. The checkpoint is deleted when the analysis finishes.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class Checkpoint {
+
+    public static final String EXTENSION = ".lpcheckpoint";
+    public static final long DEFAULT_INTERVAL = 60000;
+    private static final long MAGIC = 0x4c50434b50543031L; //LPCKPT01
+    private static final int VERSION = 2;
+    private final File source;
+    private final File file;
+    private final String configuration;
+    private final List<CheckpointableAnalyzer> analyzers;
+    private final long intervalNanos;
+    private long nextCheckpoint;
+    private long offset;
+    private int lineNumber;
+
+    /**
+     * @param configuration the parser's configuration (see {@link eu.cloudtm.parser.Parser#configuration()})
+     * @param interval      the minimum time between checkpoints, in milliseconds
+     */
+    public Checkpoint(File source, String configuration, List<Analyzer> analyzers, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.source = source;
+        this.file = new File(source.getPath() + EXTENSION);
+        this.configuration = configuration + ";" + TimeZone.getDefault().getID();
+        this.analyzers = new ArrayList<CheckpointableAnalyzer>(analyzers.size());
+        for (Analyzer analyzer : analyzers) {
+            if (!(analyzer instanceof CheckpointableAnalyzer)) {
+                throw new IllegalArgumentException(analyzer.getClass().getName() + " does not implement " +
+                        CheckpointableAnalyzer.class.getName());
+            }
+            this.analyzers.add((CheckpointableAnalyzer) analyzer);
+        }
+        this.intervalNanos = interval * 1000000;
+        this.nextCheckpoint = System.nanoTime() + intervalNanos;
+        this.offset = 0;
+        this.lineNumber = 1;
+    }
+
+    /**
+     * Restores the analyzers' state from the last checkpoint. It must be invoked after {@link Analyzer#before()}. The
+     * state is only restored if the checkpoint was taken with the same analyzers and configurations (see {@link
+     * CheckpointableAnalyzer#checkpointConfiguration()}), so no analyzer is left partially restored.
+     *
+     * @return {@code true} if the checkpoint was restored, {@code false} if there is no valid checkpoint (and the
+     *         analysis must start from the beginning)
+     */
+    public final boolean restore() throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readLong() != MAGIC || input.readInt() != VERSION || input.readLong() != source.length() ||
+                    input.readLong() != source.lastModified() || !input.readUTF().equals(configuration) ||
+                    input.readInt() != analyzers.size()) {
+                return false;
+            }
+            long savedOffset = input.readLong();
+            int savedLineNumber = input.readInt();
+            List<byte[]> states = new ArrayList<byte[]>(analyzers.size());
+            for (CheckpointableAnalyzer analyzer : analyzers) {
+                String name = input.readUTF();
+                String analyzerConfiguration = input.readUTF();
+                if (!name.equals(analyzer.getClass().getName()) ||
+                        !analyzerConfiguration.equals(analyzer.checkpointConfiguration())) {
+                    System.err.println("Checkpoint " + file + " was taken with other analyzers or configuration (" +
+                            name + ": " + analyzerConfiguration + ")");
+                    return false;
+                }
+                byte[] state = new byte[input.readInt()];
+                input.readFully(state);
+                states.add(state);
+            }
+            for (int i = 0; i < analyzers.size(); ++i) {
+                analyzers.get(i).restoreState(new DataInputStream(new ByteArrayInputStream(states.get(i))));
+            }
+            offset = savedOffset;
+            lineNumber = savedLineNumber;
+            return true;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the offset where to start (or resume) parsing
+     */
+    public final long offset() {
+        return offset;
+    }
+
+    /**
+     * @return the line number of the {@link #offset()}
+     */
+    public final int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Saves a checkpoint if the iterator is in a chunk boundary and the interval has elapsed. It must be invoked after
+     * each entry is analyzed.
+     */
+    public final void afterEntry(ChunkedLogIterator iterator) throws Exception {
+        if (iterator.atChunkEnd() && System.nanoTime() - nextCheckpoint >= 0) {
+            save(iterator.resumeOffset(), iterator.resumeLineNumber());
+            nextCheckpoint = System.nanoTime() + intervalNanos;
+        }
+    }
+
+    /**
+     * Deletes the checkpoint, after the analysis finished.
+     */
+    public final void delete() {
+        if (file.exists() && !file.delete()) {
+            System.err.println("Cannot delete the checkpoint " + file);
+        }
+    }
+
+    private void save(long offset, int lineNumber) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeLong(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(source.length());
+            output.writeLong(source.lastModified());
+            output.writeUTF(configuration);
+            output.writeInt(analyzers.size());
+            output.writeLong(offset);
+            output.writeInt(lineNumber);
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            for (CheckpointableAnalyzer analyzer : analyzers) {
+                state.reset();
+                DataOutputStream stateOutput = new DataOutputStream(state);
+                analyzer.saveState(stateOutput);
+                stateOutput.flush();
+                output.writeUTF(analyzer.getClass().getName());
+                output.writeUTF(analyzer.checkpointConfiguration());
+                output.writeInt(state.size());
+                state.writeTo(output);
+            }
+        } finally {
+            output.close();
+        }
+        //the previous checkpoint is only replaced by a complete one
+        if (!file.delete() && file.exists() || !temporary.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporary);
+        }
+        this.offset = offset;
+        this.lineNumber = lineNumber;
+    }
+}
@@ -1,60 +1,240 @@
 package eu.cloudtm;
 
+import eu.cloudtm.SymbolTable.Symbol;
+
+import java.util.ArrayList;
+
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
 import static eu.cloudtm.Util.LINE_SEPARATOR;
 import static eu.cloudtm.Util.prettyPrintTime;
 
 /**
+ * A log entry.
+ * <p/>
+ * A parser may return a flyweight entry (see {@link #isFlyweight()}): the same instance is reused for every entry and
+ * the message is only decoded from the parser's buffer when accessed. A flyweight entry is only valid until the next
+ * call to the iterator, so an analyzer that keeps entries must keep {@link #detach()} instead.
+ *
  * @author Pedro Ruivo
  * @since 1.0
  */
 public class LogEntry {
 
-    private final long time;
-    private final String level;
-    private final String clazz;
-    private final String thread;
-    private final int lineNumber;
+    private long time;
+    private Symbol level;
+    private Symbol clazz;
+    private Symbol thread;
+    private String firstLine;
+    private int lineNumber;
     private String message;
+    private ArrayList<String> newLines;
+    private LazyMessage lazyMessage;
+    private String source;
 
     public LogEntry(int lineNumber, long time, String level, String clazz, String thread, String message) {
+        this(lineNumber, time, LEVELS.intern(level), CLASSES.intern(clazz), THREADS.intern(thread), message);
+    }
+
+    /**
+     * The symbols must be from {@link SymbolTable#LEVELS}, {@link SymbolTable#CLASSES} and {@link
+     * SymbolTable#THREADS}.
+     */
+    public LogEntry(int lineNumber, long time, Symbol level, Symbol clazz, Symbol thread, String message) {
         this.lineNumber = lineNumber;
         this.time = time;
         this.level = level;
         this.clazz = clazz;
         this.thread = thread;
+        this.firstLine = message;
         this.message = message;
     }
 
+    /**
+     * Creates a flyweight entry, whose message is decoded by {@code lazyMessage} when needed.
+     */
+    public LogEntry(int lineNumber, long time, Symbol level, Symbol clazz, Symbol thread, LazyMessage lazyMessage) {
+        reuse(lineNumber, time, level, clazz, thread, lazyMessage);
+    }
+
+    /**
+     * Resets this flyweight entry with the next log entry.
+     *
+     * @return this entry
+     */
+    public final LogEntry reuse(int lineNumber, long time, Symbol level, Symbol clazz, Symbol thread,
+                                LazyMessage lazyMessage) {
+        if (lazyMessage == null) {
+            throw new NullPointerException("Lazy message cannot be null");
+        }
+        this.lineNumber = lineNumber;
+        this.time = time;
+        this.level = level;
+        this.clazz = clazz;
+        this.thread = thread;
+        this.lazyMessage = lazyMessage;
+        this.firstLine = null;
+        this.message = null;
+        this.newLines = null;
+        this.source = null;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if this entry is reused by the parser
+     */
+    public final boolean isFlyweight() {
+        return lazyMessage != null;
+    }
+
+    /**
+     * @return an entry that can be kept after the iterator moves on: this entry if it is not a flyweight, or a copy
+     *         otherwise
+     */
+    public final LogEntry detach() {
+        if (lazyMessage == null) {
+            return this;
+        }
+        LogEntry copy = new LogEntry(lineNumber, time, level, clazz, thread, message());
+        copy.firstLine = firstLine();
+        copy.source = source;
+        return copy;
+    }
+
     public final long time() {
         return time;
     }
 
     public final String level() {
-        return level;
+        return level.value();
+    }
+
+    /**
+     * @return the id of the level in {@link SymbolTable#LEVELS}
+     */
+    public final int levelId() {
+        return level.id();
     }
 
     public final String clazz() {
-        return clazz;
+        return clazz.value();
+    }
+
+    /**
+     * @return the id of the class in {@link SymbolTable#CLASSES}
+     */
+    public final int clazzId() {
+        return clazz.id();
     }
 
     public final String thread() {
+        return thread.value();
+    }
+
+    /**
+     * @return the id of the thread in {@link SymbolTable#THREADS}
+     */
+    public final int threadId() {
+        return thread.id();
+    }
+
+    final Symbol levelSymbol() {
+        return level;
+    }
+
+    final Symbol clazzSymbol() {
+        return clazz;
+    }
+
+    final Symbol threadSymbol() {
         return thread;
     }
 
+    /**
+     * @return the full message. The lines added with {@link #addNewLine(String)} are only joined here, once.
+     */
     public final String message() {
+        if (message == null) {
+            //flyweight
+            if (lazyMessage.newLines() == 0) {
+                message = firstLine();
+            } else {
+                addLazyNewLines();
+            }
+        }
+        if (newLines != null) {
+            int length = message.length();
+            for (String newLine : newLines) {
+                length += LINE_SEPARATOR.length() + newLine.length();
+            }
+            StringBuilder builder = new StringBuilder(length).append(message);
+            for (String newLine : newLines) {
+                builder.append(LINE_SEPARATOR).append(newLine);
+            }
+            message = builder.toString();
+            newLines = null;
+        }
         return message;
     }
 
+    /**
+     * @return the first line of the message, without joining the other lines
+     */
+    public final String firstLine() {
+        if (firstLine == null) {
+            firstLine = lazyMessage.firstLine();
+        }
+        return firstLine;
+    }
+
+    /**
+     * @return {@code true} if the message starts with {@code prefix}. A flyweight entry checks it without decoding the
+     *         message.
+     */
+    public final boolean startsWith(String prefix) {
+        if (firstLine == null) {
+            return lazyMessage.firstLineStartsWith(prefix);
+        }
+        return firstLine.startsWith(prefix);
+    }
+
     public final void addNewLine(String newLine) {
-        message = message + LINE_SEPARATOR + newLine;
+        if (message == null) {
+            //flyweight. keep the order of the lines
+            addLazyNewLines();
+        }
+        if (newLines == null) {
+            newLines = new ArrayList<String>();
+        }
+        newLines.add(newLine);
     }
 
     public final int lineNumber() {
         return lineNumber;
     }
 
+    /**
+     * Moves the line number forward. Used when the entry was parsed from a region of the file whose position (in lines)
+     * was not known at the time.
+     */
+    public final void shiftLineNumber(int lines) {
+        lineNumber += lines;
+    }
+
+    /**
+     * @return the name of the log (node or file) from where this entry was read, or {@code null} if unknown
+     */
+    public final String source() {
+        return source;
+    }
+
+    public final void setSource(String source) {
+        this.source = source;
+    }
+
     public final String prettyPrint() {
-        return prettyPrintTime(time) + " " + level + " [" + clazz + "] (" + thread + ") " + message;
+        return prettyPrintTime(time) + " " + level + " [" + clazz + "] (" + thread + ") " + message();
     }
 
     @Override
@@ -65,7 +245,7 @@ public class LogEntry {
                 ", level='" + level + '\'' +
                 ", clazz='" + clazz + '\'' +
                 ", thread='" + thread + '\'' +
-                ", message='" + message + '\'' +
+                ", message='" + message() + '\'' +
                 '}';
     }
 
@@ -77,20 +257,52 @@ public class LogEntry {
         LogEntry logEntry = (LogEntry) o;
 
         return time == logEntry.time &&
-                clazz.equals(logEntry.clazz) &&
-                level.equals(logEntry.level) &&
-                message.equals(logEntry.message) &&
-                thread.equals(logEntry.thread);
+                clazz == logEntry.clazz &&
+                level == logEntry.level &&
+                message().equals(logEntry.message()) &&
+                thread == logEntry.thread;
 
     }
 
     @Override
     public int hashCode() {
         int result = (int) (time ^ (time >>> 32));
-        result = 31 * result + level.hashCode();
-        result = 31 * result + clazz.hashCode();
-        result = 31 * result + thread.hashCode();
-        result = 31 * result + message.hashCode();
+        result = 31 * result + level.value().hashCode();
+        result = 31 * result + clazz.value().hashCode();
+        result = 31 * result + thread.value().hashCode();
+        result = 31 * result + message().hashCode();
         return result;
     }
+
+    private void addLazyNewLines() {
+        message = firstLine();
+        int lines = lazyMessage.newLines();
+        if (lines > 0) {
+            ArrayList<String> lazyLines = new ArrayList<String>(lines + (newLines == null ? 0 : newLines.size()));
+            for (int i = 0; i < lines; ++i) {
+                lazyLines.add(lazyMessage.newLine(i));
+            }
+            if (newLines != null) {
+                lazyLines.addAll(newLines);
+            }
+            newLines = lazyLines;
+        }
+    }
+
+    /**
+     * Decodes the message of a flyweight entry from the parser's buffer.
+     */
+    public static interface LazyMessage {
+
+        String firstLine();
+
+        /**
+         * @return the number of lines after the first one
+         */
+        int newLines();
+
+        String newLine(int index);
+
+        boolean firstLineStartsWith(String prefix);
+    }
 }
@@ -0,0 +1,267 @@
+package eu.cloudtm;
+
+import eu.cloudtm.SymbolTable.Symbol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
+import static eu.cloudtm.Util.LINE_SEPARATOR;
+
+/**
+ * A reusable batch of log entries stored column-wise: the times, line numbers and symbol ids are kept in primitive
+ * arrays and all the messages are kept in a single char array, delimited by offsets.
+ * <p/>
+ * The batch is filled by {@link eu.cloudtm.parser.LogIterator#nextBatch(LogEntryBatch)} and it is only valid until
+ * the next call.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class LogEntryBatch {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private final int capacity;
+    private final long[] times;
+    private final int[] lineNumbers;
+    private final int[] levelIds;
+    private final int[] clazzIds;
+    private final int[] threadIds;
+    private final int[] messageStarts;
+    private final int[] firstLineEnds;
+    private final int[] messageEnds;
+    private final String[] sources;
+    private char[] messages;
+    private int messagesLength;
+    private boolean firstLinePending;
+    private int size;
+
+    public LogEntryBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LogEntryBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.lineNumbers = new int[capacity];
+        this.levelIds = new int[capacity];
+        this.clazzIds = new int[capacity];
+        this.threadIds = new int[capacity];
+        this.messageStarts = new int[capacity];
+        this.firstLineEnds = new int[capacity];
+        this.messageEnds = new int[capacity];
+        this.sources = new String[capacity];
+        this.messages = new char[capacity * 128];
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final int capacity() {
+        return capacity;
+    }
+
+    public final boolean isFull() {
+        return size == capacity;
+    }
+
+    public final void clear() {
+        Arrays.fill(sources, 0, size, null);
+        size = 0;
+        messagesLength = 0;
+        firstLinePending = false;
+    }
+
+    /**
+     * Adds the entry to the batch. The entry is not kept, so it can be a flyweight.
+     */
+    public final void add(LogEntry logEntry) {
+        String message = logEntry.message();
+        int index = add(logEntry.lineNumber(), logEntry.time(), logEntry.levelId(), logEntry.clazzId(),
+                logEntry.threadId());
+        ensureMessageCapacity(message.length());
+        message.getChars(0, message.length(), messages, messagesLength);
+        messagesLength += message.length();
+        messageEnds[index] = messagesLength;
+        firstLineEnds[index] = messageStarts[index] + logEntry.firstLine().length();
+        sources[index] = logEntry.source();
+        firstLinePending = false;
+    }
+
+    /**
+     * Adds an entry without message. The message lines are added next, with {@link #appendLine(ByteBuffer, int, int,
+     * Charset)}.
+     *
+     * @return the index of the entry
+     */
+    public final int add(int lineNumber, long time, int levelId, int clazzId, int threadId) {
+        if (size == capacity) {
+            throw new IllegalStateException("Batch is full");
+        }
+        int index = size++;
+        times[index] = time;
+        lineNumbers[index] = lineNumber;
+        levelIds[index] = levelId;
+        clazzIds[index] = clazzId;
+        threadIds[index] = threadId;
+        messageStarts[index] = messagesLength;
+        firstLineEnds[index] = messagesLength;
+        messageEnds[index] = messagesLength;
+        firstLinePending = true;
+        return index;
+    }
+
+    /**
+     * Appends a message line to the last entry, decoding it directly from the byte buffer.
+     */
+    public final void appendLine(ByteBuffer buffer, int start, int end, Charset charset) {
+        if (size == 0) {
+            throw new IllegalStateException("Batch is empty");
+        }
+        int index = size - 1;
+        if (!firstLinePending) {
+            appendChars(LINE_SEPARATOR);
+        }
+        ensureMessageCapacity(end - start);
+        int length = messagesLength;
+        boolean ascii = true;
+        for (int i = start; ascii && i < end; ++i) {
+            byte b = buffer.get(i);
+            ascii = b >= 0;
+            messages[length++] = (char) b;
+        }
+        if (ascii) {
+            messagesLength = length;
+        } else {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[i] = buffer.get(start + i);
+            }
+            appendChars(new String(bytes, charset));
+        }
+        messageEnds[index] = messagesLength;
+        if (firstLinePending) {
+            firstLineEnds[index] = messagesLength;
+            firstLinePending = false;
+        }
+    }
+
+    public final long time(int index) {
+        return times[checkIndex(index)];
+    }
+
+    public final int lineNumber(int index) {
+        return lineNumbers[checkIndex(index)];
+    }
+
+    public final int levelId(int index) {
+        return levelIds[checkIndex(index)];
+    }
+
+    public final int clazzId(int index) {
+        return clazzIds[checkIndex(index)];
+    }
+
+    public final int threadId(int index) {
+        return threadIds[checkIndex(index)];
+    }
+
+    public final String source(int index) {
+        return sources[checkIndex(index)];
+    }
+
+    public final void setSource(int index, String source) {
+        sources[checkIndex(index)] = source;
+    }
+
+    /**
+     * @return the times column. Only the first {@link #size()} positions are valid.
+     */
+    public final long[] times() {
+        return times;
+    }
+
+    /**
+     * @return the thread ids column. Only the first {@link #size()} positions are valid.
+     */
+    public final int[] threadIds() {
+        return threadIds;
+    }
+
+    public final String message(int index) {
+        checkIndex(index);
+        return new String(messages, messageStarts[index], messageEnds[index] - messageStarts[index]);
+    }
+
+    public final String firstLine(int index) {
+        checkIndex(index);
+        return new String(messages, messageStarts[index], firstLineEnds[index] - messageStarts[index]);
+    }
+
+    /**
+     * @return {@code true} if the message of the entry starts with {@code prefix}, without creating the message
+     */
+    public final boolean startsWith(int index, String prefix) {
+        checkIndex(index);
+        int start = messageStarts[index];
+        if (prefix.length() > firstLineEnds[index] - start) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (messages[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a new {@link LogEntry} with the entry in {@code index}
+     */
+    public final LogEntry entry(int index) {
+        checkIndex(index);
+        LogEntry logEntry = new LogEntry(lineNumbers[index], times[index], symbol(LEVELS, levelIds[index]),
+                symbol(CLASSES, clazzIds[index]), symbol(THREADS, threadIds[index]), firstLine(index));
+        if (messageEnds[index] > firstLineEnds[index]) {
+            //skip the line separator after the first line
+            int start = firstLineEnds[index] + LINE_SEPARATOR.length();
+            logEntry.addNewLine(new String(messages, start, messageEnds[index] - start));
+        }
+        logEntry.setSource(sources[index]);
+        return logEntry;
+    }
+
+    private static Symbol symbol(SymbolTable table, int id) {
+        Symbol symbol = table.symbol(id);
+        if (symbol == null) {
+            throw new IllegalStateException("Unknown symbol " + id + " in " + table);
+        }
+        return symbol;
+    }
+
+    private void appendChars(String value) {
+        ensureMessageCapacity(value.length());
+        value.getChars(0, value.length(), messages, messagesLength);
+        messagesLength += value.length();
+    }
+
+    private void ensureMessageCapacity(int length) {
+        if (messagesLength + length > messages.length) {
+            messages = Arrays.copyOf(messages, Math.max(messages.length * 2, messagesLength + length));
+        }
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,328 @@
+package eu.cloudtm;
+
+import eu.cloudtm.SymbolTable.Symbol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A filter declared by an analyzer and tested by the parser before building the log entry, so that the entries the
+ * analyzer ignores are never created.
+ * <p/>
+ * An entry is accepted if all the conditions set are true:
+ * <ul>
+ * <li>the message starts with one of the prefixes or contains one of the substrings (only the first line of the
+ * message is tested);</li>
+ * <li>the level is one of the levels;</li>
+ * <li>the class and the thread contain a match of their patterns;</li>
+ * <li>the time is between {@code from} (inclusive) and {@code to} (exclusive).</li>
+ * </ul>
+ * The level, class and thread conditions are evaluated once per symbol. This class is thread safe after it is
+ * configured.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class LogFilter {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ACCEPT = 1;
+    private static final byte REJECT = 2;
+    private final List<String> prefixes;
+    private final List<String> substrings;
+    private final Set<String> levels;
+    private Pattern classPattern;
+    private Pattern threadPattern;
+    private long from;
+    private long to;
+    private final SymbolCache levelCache;
+    private final SymbolCache classCache;
+    private final SymbolCache threadCache;
+
+    public LogFilter() {
+        prefixes = new ArrayList<String>();
+        substrings = new ArrayList<String>();
+        levels = new HashSet<String>();
+        from = Long.MIN_VALUE;
+        to = Long.MAX_VALUE;
+        levelCache = new SymbolCache();
+        classCache = new SymbolCache();
+        threadCache = new SymbolCache();
+    }
+
+    public final LogFilter messageStartsWith(String... prefixes) {
+        Collections.addAll(this.prefixes, prefixes);
+        return this;
+    }
+
+    public final LogFilter messageContains(String... substrings) {
+        Collections.addAll(this.substrings, substrings);
+        return this;
+    }
+
+    public final LogFilter level(String... levels) {
+        this.levels.addAll(Arrays.asList(levels));
+        return this;
+    }
+
+    public final LogFilter classPattern(String regex) {
+        this.classPattern = Pattern.compile(regex);
+        return this;
+    }
+
+    public final LogFilter threadPattern(String regex) {
+        this.threadPattern = Pattern.compile(regex);
+        return this;
+    }
+
+    /**
+     * @param from the first time accepted (inclusive)
+     * @param to   the last time accepted (exclusive)
+     */
+    public final LogFilter timeRange(long from, long to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid time range [" + from + "," + to + "[");
+        }
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public final long from() {
+        return from;
+    }
+
+    public final long to() {
+        return to;
+    }
+
+    /**
+     * @return {@code true} if the message is not tested
+     */
+    public final boolean acceptsAnyMessage() {
+        return prefixes.isEmpty() && substrings.isEmpty();
+    }
+
+    /**
+     * Tests the conditions on the fields decoded before the message.
+     */
+    public final boolean accept(long time, Symbol level, Symbol clazz, Symbol thread) {
+        return time >= from && time < to &&
+                (levels.isEmpty() || levelCache.accept(level, levels, null)) &&
+                (classPattern == null || classCache.accept(clazz, null, classPattern)) &&
+                (threadPattern == null || threadCache.accept(thread, null, threadPattern));
+    }
+
+    public final boolean acceptMessage(String firstLine) {
+        if (acceptsAnyMessage()) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (firstLine.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String substring : substrings) {
+            if (firstLine.contains(substring)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests the message directly in the line chars.
+     */
+    public final boolean acceptMessage(char[] array, int start, int end) {
+        if (acceptsAnyMessage()) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (regionMatches(array, start, end, prefix)) {
+                return true;
+            }
+        }
+        for (String substring : substrings) {
+            for (int index = start; index <= end - substring.length(); ++index) {
+                if (regionMatches(array, index, end, substring)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests the message directly in the line bytes. The bytes are only decoded if a prefix or substring is not ASCII.
+     */
+    public final boolean acceptMessage(ByteBuffer buffer, int start, int end, Charset charset) {
+        if (acceptsAnyMessage()) {
+            return true;
+        }
+        String decoded = null;
+        for (String prefix : prefixes) {
+            if (isAscii(prefix)) {
+                if (regionMatches(buffer, start, end, prefix)) {
+                    return true;
+                }
+            } else {
+                decoded = decoded == null ? decode(buffer, start, end, charset) : decoded;
+                if (decoded.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        for (String substring : substrings) {
+            if (isAscii(substring)) {
+                for (int index = start; index <= end - substring.length(); ++index) {
+                    if (regionMatches(buffer, index, end, substring)) {
+                        return true;
+                    }
+                }
+            } else {
+                decoded = decoded == null ? decode(buffer, start, end, charset) : decoded;
+                if (decoded.contains(substring)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public final boolean accept(LogEntry logEntry) {
+        return accept(logEntry.time(), logEntry.levelSymbol(), logEntry.clazzSymbol(), logEntry.threadSymbol()) &&
+                acceptMessage(logEntry);
+    }
+
+    /**
+     * @return a filter accepting the entries accepted by any of the {@code filters}, or {@code null} if all the entries
+     *         may be accepted (or the union cannot be expressed as a single filter)
+     */
+    public static LogFilter anyOf(List<LogFilter> filters) {
+        LogFilter union = new LogFilter();
+        for (LogFilter filter : filters) {
+            if (filter == null || filter.acceptsAnyMessage() || !filter.levels.isEmpty() ||
+                    filter.classPattern != null || filter.threadPattern != null ||
+                    filter.from != Long.MIN_VALUE || filter.to != Long.MAX_VALUE) {
+                //only the message conditions can be merged
+                return null;
+            }
+            union.prefixes.addAll(filter.prefixes);
+            union.substrings.addAll(filter.substrings);
+        }
+        return filters.isEmpty() ? null : union;
+    }
+
+    /**
+     * The prefixes are tested with {@link LogEntry#startsWith(String)}, so flyweight entries are not decoded.
+     */
+    private boolean acceptMessage(LogEntry logEntry) {
+        if (acceptsAnyMessage()) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (logEntry.startsWith(prefix)) {
+                return true;
+            }
+        }
+        if (substrings.isEmpty()) {
+            return false;
+        }
+        String firstLine = logEntry.firstLine();
+        for (String substring : substrings) {
+            if (firstLine.contains(substring)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "LogFilter{" +
+                "prefixes=" + prefixes +
+                ", substrings=" + substrings +
+                ", levels=" + levels +
+                ", classPattern=" + classPattern +
+                ", threadPattern=" + threadPattern +
+                ", from=" + from +
+                ", to=" + to +
+                '}';
+    }
+
+    private static boolean regionMatches(char[] array, int start, int end, String value) {
+        if (value.length() > end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            if (array[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int start, int end, String value) {
+        if (value.length() > end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Caches the result of a condition by symbol id. Concurrent threads may evaluate the same symbol twice, which is
+     * harmless because the result is always the same.
+     */
+    private static class SymbolCache {
+        private volatile byte[] results = new byte[64];
+
+        private boolean accept(Symbol symbol, Set<String> values, Pattern pattern) {
+            int id = symbol.id();
+            byte[] array = results;
+            byte result = id < array.length ? array[id] : UNKNOWN;
+            if (result == UNKNOWN) {
+                boolean accept = values != null ? values.contains(symbol.value()) :
+                        pattern.matcher(symbol.value()).find();
+                result = accept ? ACCEPT : REJECT;
+                store(id, result);
+            }
+            return result == ACCEPT;
+        }
+
+        private synchronized void store(int id, byte result) {
+            if (id >= results.length) {
+                results = Arrays.copyOf(results, Math.max(id + 1, results.length * 2));
+            }
+            results[id] = result;
+        }
+    }
+}
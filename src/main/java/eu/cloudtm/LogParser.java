@@ -1,11 +1,30 @@
 package eu.cloudtm;
 
 import eu.cloudtm.analyzer.Analyzer;
+import eu.cloudtm.analyzer.CompositeAnalyzer;
+import eu.cloudtm.analyzer.ShardedAnalyzer;
+import eu.cloudtm.output.OutputFormat;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.parser.ChunkedLogIterator;
+import eu.cloudtm.parser.FollowInputStream;
+import eu.cloudtm.parser.LogCache;
 import eu.cloudtm.parser.LogIterator;
+import eu.cloudtm.parser.MergeLogIterator;
+import eu.cloudtm.parser.ParallelLogIterator;
 import eu.cloudtm.parser.Parser;
+import eu.cloudtm.parser.RangeParser;
+import eu.cloudtm.parser.ReadAheadLogIterator;
+import eu.cloudtm.parser.TimeIndex;
+import eu.cloudtm.parser.TimestampDecoder;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * @author Pedro Ruivo
@@ -17,35 +36,324 @@ public class LogParser {
         Arguments arguments = new Arguments(Argument.values());
         arguments.parse(args);
 
-        Parser parser = (Parser) Util.loadClass(arguments.get(Argument.PARSER)).newInstance();
-        Analyzer analyzer = (Analyzer) Util.loadClass(arguments.get(Argument.ANALYZER)).newInstance();
-        InputStream inputStream = Util.loadResource(arguments.get(Argument.FILE));
-
-        if (inputStream == null) {
+        Class<?> parserClass = Util.loadClass(arguments.get(Argument.PARSER));
+        int parallelism = arguments.get(Argument.PARALLELISM) == null ? 1 :
+                arguments.getAsNumber(Argument.PARALLELISM).intValue();
+        int partitions = arguments.get(Argument.PARTITIONS) == null ? 1 :
+                arguments.getAsNumber(Argument.PARTITIONS).intValue();
+        boolean follow = arguments.getAsBoolean(Argument.FOLLOW);
+        boolean cache = arguments.getAsBoolean(Argument.CACHE);
+        Outputs.configure(arguments.get(Argument.OUTPUT) == null ? null : new File(arguments.get(Argument.OUTPUT)),
+                arguments.get(Argument.FORMAT) == null ? OutputFormat.CSV :
+                        OutputFormat.fromString(arguments.get(Argument.FORMAT)));
+        List<Analyzer> analyzers = createAnalyzers(arguments.get(Argument.ANALYZER), partitions,
+                follow ? 1 : ShardedAnalyzer.DEFAULT_BATCH_SIZE);
+        Analyzer analyzer = analyzers.size() == 1 ? analyzers.get(0) : new CompositeAnalyzer(analyzers);
+        LogFilter filter = analyzer.filter();
+        String waitStrategy = arguments.get(Argument.PIPELINE);
+        List<String> files = Util.expandFiles(arguments.get(Argument.FILE));
+        if (files.isEmpty()) {
             throw new IllegalArgumentException(arguments.get(Argument.FILE) + " not found!");
         }
+        if (arguments.get(Argument.FROM) != null || arguments.get(Argument.TO) != null) {
+            //a time without date is in the day of the first entry
+            long reference = firstTime((Parser) parserClass.newInstance(), files.get(0));
+            long from = arguments.get(Argument.FROM) == null ? Long.MIN_VALUE :
+                    TimeIndex.parseTime(arguments.get(Argument.FROM), reference);
+            long to = arguments.get(Argument.TO) == null ? Long.MAX_VALUE :
+                    TimeIndex.parseTime(arguments.get(Argument.TO), reference);
+            filter = timeWindow(filter, from, to);
+        }
+        if (follow && parallelism > 1) {
+            throw new IllegalArgumentException(Argument.PARALLELISM.consoleArgument() + " cannot be used with " +
+                    Argument.FOLLOW.consoleArgument());
+        }
+        if (follow && cache) {
+            throw new IllegalArgumentException(Argument.CACHE.consoleArgument() + " cannot be used with " +
+                    Argument.FOLLOW.consoleArgument());
+        }
+        if (arguments.get(Argument.CHECKPOINT) != null || arguments.getAsBoolean(Argument.RESUME)) {
+            if (files.size() != 1 || follow || cache || parallelism > 1 || partitions > 1 || waitStrategy != null) {
+                throw new IllegalArgumentException(Argument.CHECKPOINT.consoleArgument() + " and " +
+                        Argument.RESUME.consoleArgument() + " require a single file and cannot be used with " +
+                        Argument.FOLLOW.consoleArgument() + ", " + Argument.CACHE.consoleArgument() + ", " +
+                        Argument.PARALLELISM.consoleArgument() + ", " + Argument.PARTITIONS.consoleArgument() +
+                        " or " + Argument.PIPELINE.consoleArgument());
+            }
+            long interval = arguments.get(Argument.CHECKPOINT) == null ? Checkpoint.DEFAULT_INTERVAL :
+                    arguments.getAsNumber(Argument.CHECKPOINT).longValue() * 1000;
+            runWithCheckpoint((Parser) parserClass.newInstance(), files.get(0), analyzers, analyzer, filter,
+                    interval, arguments.getAsBoolean(Argument.RESUME));
+            System.exit(0);
+        }
 
-        LogIterator iterator = parser.parse(inputStream);
+        final List<FollowInputStream> followStreams = new ArrayList<FollowInputStream>(files.size());
+        LogIterator iterator;
+        if (files.size() == 1) {
+            iterator = createIterator((Parser) parserClass.newInstance(), files.get(0), parallelism, filter,
+                    follow ? followStreams : null, cache);
+        } else {
+            //one log per node: each one is parsed in its own thread and the entries are merged by timestamp
+            List<String> sources = new ArrayList<String>(files.size());
+            List<LogIterator> iterators = new ArrayList<LogIterator>(files.size());
+            for (String file : files) {
+                String source = new File(file).getName();
+                sources.add(source);
+                //in follow mode, each entry is handed to the merge as soon as it is parsed
+                iterators.add(new ReadAheadLogIterator(source, createIterator((Parser) parserClass.newInstance(),
+                        file, parallelism, filter, follow ? followStreams : null, cache),
+                        follow ? 1 : ReadAheadLogIterator.DEFAULT_BATCH_SIZE, ReadAheadLogIterator.DEFAULT_QUEUE_SIZE));
+            }
+            iterator = new MergeLogIterator(sources, iterators);
+        }
         //System.out.println(Arrays.toString(logEntries));
 
+        final CountDownLatch finished = new CountDownLatch(1);
+        if (follow) {
+            //the files are followed until the process is stopped (Ctrl-C). the hook stops following the files and
+            //waits for the remaining entries to be analyzed and for the analyzer's report
+            Runtime.getRuntime().addShutdownHook(new Thread("follow-shutdown") {
+                @Override
+                public void run() {
+                    for (FollowInputStream stream : followStreams) {
+                        stream.close();
+                    }
+                    try {
+                        finished.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        if (waitStrategy != null) {
+            //in follow mode, each entry is published as soon as it is parsed
+            Pipeline pipeline = new Pipeline(analyzers, Pipeline.WaitStrategy.fromString(waitStrategy),
+                    follow ? 1 : Pipeline.DEFAULT_BATCH_SIZE, Pipeline.DEFAULT_RING_SIZE);
+            try {
+                pipeline.run(iterator);
+            } finally {
+                Outputs.closeAll();
+                finished.countDown();
+            }
+            System.exit(0);
+        }
+
         try {
             analyzer.before();
+            if (!follow && isBatchAnalyzer(analyzer)) {
+                //in follow mode, the entries are analyzed one by one to avoid waiting for a full batch
+                LogEntryBatch batch = new LogEntryBatch();
+                while (iterator.nextBatch(batch) > 0) {
+                    analyzer.analyzeBatch(batch);
+                }
+            } else {
+                while (iterator.hasNext()) {
+                    analyzer.analyze(iterator.next());
+                }
+            }
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        } finally {
+            analyzer.after();
+            Outputs.closeAll();
+            finished.countDown();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Analyzes the file sequentially, saving a {@link Checkpoint} periodically. If {@code resume} is {@code true}, the
+     * analysis continues from the last checkpoint (if any).
+     */
+    private static void runWithCheckpoint(Parser parser, String file, List<Analyzer> analyzers, Analyzer analyzer,
+                                          LogFilter filter, long interval, boolean resume) throws Exception {
+        File sourceFile = new File(file);
+        if (!(parser instanceof RangeParser) || !sourceFile.isFile()) {
+            throw new IllegalArgumentException(Argument.CHECKPOINT.consoleArgument() +
+                    " requires a file and a parser implementing eu.cloudtm.parser.RangeParser interface");
+        }
+        Checkpoint checkpoint = new Checkpoint(sourceFile, parser.configuration(), analyzers, interval);
+        analyzer.before();
+        if (resume) {
+            boolean restored;
+            try {
+                restored = checkpoint.restore();
+            } catch (Exception e) {
+                //the analyzers may be partially restored: the analysis is aborted without their report
+                Outputs.closeAll();
+                throw e;
+            }
+            if (restored) {
+                System.err.println("Resuming from line " + checkpoint.lineNumber());
+            } else {
+                System.err.println("No valid checkpoint found for " + file + ". Starting from the beginning");
+            }
+        }
+        FileInputStream inputStream = new FileInputStream(sourceFile);
+        boolean success = false;
+        try {
+            ChunkedLogIterator iterator = new ChunkedLogIterator((RangeParser) parser, inputStream.getChannel(),
+                    checkpoint.offset(), checkpoint.lineNumber(), ChunkedLogIterator.DEFAULT_CHUNK_SIZE, filter);
             while (iterator.hasNext()) {
                 analyzer.analyze(iterator.next());
+                checkpoint.afterEntry(iterator);
             }
+            success = true;
         } catch (Throwable throwable) {
             throwable.printStackTrace();
         } finally {
+            inputStream.close();
             analyzer.after();
+            Outputs.closeAll();
+        }
+        if (success) {
+            checkpoint.delete();
         }
+    }
 
-        System.exit(0);
+    /**
+     * @return one analyzer per class name (comma separated). More than one analyzer is run by a {@link
+     *         CompositeAnalyzer} or by a {@link Pipeline}. The partitioned analyzers are run in {@code partitions}
+     *         threads (see {@link ShardedAnalyzer})
+     */
+    private static List<Analyzer> createAnalyzers(String classNames, int partitions, int batchSize)
+            throws Exception {
+        String[] names = classNames.split(",");
+        List<Analyzer> analyzers = new ArrayList<Analyzer>(names.length);
+        for (String name : names) {
+            Analyzer analyzer = (Analyzer) Util.loadClass(name.trim()).newInstance();
+            analyzers.add(ShardedAnalyzer.partition(analyzer, partitions, batchSize));
+        }
+        return analyzers;
+    }
+
+    /**
+     * @return the filter with its time range restricted to [{@code from}, {@code to}[
+     */
+    private static LogFilter timeWindow(LogFilter filter, long from, long to) {
+        if (filter == null) {
+            filter = new LogFilter();
+        }
+        long newFrom = Math.max(from, filter.from());
+        long newTo = Math.min(to, filter.to());
+        return filter.timeRange(newFrom, Math.max(newFrom, newTo));
+    }
+
+    /**
+     * @return the time of the first entry of the file, or {@link TimestampDecoder#INVALID} if it has no entries
+     */
+    private static long firstTime(Parser parser, String file) throws Exception {
+        InputStream inputStream = Util.loadResource(file);
+        if (inputStream == null) {
+            throw new IllegalArgumentException(file + " not found!");
+        }
+        try {
+            LogIterator iterator = parser.parse(inputStream);
+            return iterator.hasNext() ? iterator.next().time() : TimestampDecoder.INVALID;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return {@code true} if the analyzer overrides {@link Analyzer#analyzeBatch(LogEntryBatch)}
+     */
+    private static boolean isBatchAnalyzer(Analyzer analyzer) throws NoSuchMethodException {
+        return analyzer.getClass().getMethod("analyzeBatch", LogEntryBatch.class).getDeclaringClass() != Analyzer.class;
+    }
+
+    /**
+     * @param filter        the analyzer's filter or {@code null}
+     * @param followStreams if not {@code null}, the file is followed and its stream is added to this list
+     * @param cache         if {@code true}, the entries are read from the file's {@link LogCache} if it is up to date,
+     *                      otherwise the file is parsed (without filter) and the cache is written
+     *                      <p/>
+     *                      If the filter has a time range, only the region of the file in the time range is parsed (see
+     *                      {@link TimeIndex}).
+     */
+    private static LogIterator createIterator(Parser parser, String file, int parallelism, LogFilter filter,
+                                              List<FollowInputStream> followStreams, boolean cache)
+            throws Exception {
+        File sourceFile = new File(file);
+        if (cache && sourceFile.isFile()) {
+            String configuration = parser.configuration();
+            if (LogCache.isValid(sourceFile, configuration)) {
+                return LogCache.read(sourceFile, filter);
+            }
+            return LogCache.write(sourceFile, configuration,
+                    createIterator(parser, file, parallelism, null, followStreams, false), filter);
+        }
+        InputStream inputStream;
+        if (followStreams != null) {
+            if (!new File(file).isFile()) {
+                throw new IllegalArgumentException(file + " not found!");
+            }
+            FollowInputStream followStream = new FollowInputStream(new File(file));
+            followStreams.add(followStream);
+            inputStream = followStream;
+        } else {
+            inputStream = Util.loadResource(file);
+        }
+
+        if (inputStream == null) {
+            throw new IllegalArgumentException(file + " not found!");
+        }
+
+        if (filter != null && (filter.from() != Long.MIN_VALUE || filter.to() != Long.MAX_VALUE) &&
+                parser instanceof RangeParser && inputStream instanceof FileInputStream) {
+            RangeParser rangeParser = (RangeParser) parser;
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            TimeIndex index = TimeIndex.load(sourceFile, rangeParser, channel);
+            if (parallelism > 1) {
+                int startIndex = index.startIndex(filter.from());
+                return new ParallelLogIterator(rangeParser, channel, index.startOffset(startIndex),
+                        index.endOffset(filter.to()), index.startLineNumber(startIndex), parallelism,
+                        ParallelLogIterator.DEFAULT_CHUNK_SIZE, filter);
+            }
+            return index.parse(rangeParser, channel, filter);
+        }
+
+        if (parallelism > 1) {
+            if (!(parser instanceof RangeParser) || !(inputStream instanceof FileInputStream)) {
+                throw new IllegalArgumentException(Argument.PARALLELISM.consoleArgument() +
+                        " requires a file and a parser implementing eu.cloudtm.parser.RangeParser interface");
+            }
+            return new ParallelLogIterator((RangeParser) parser, ((FileInputStream) inputStream).getChannel(),
+                    parallelism, ParallelLogIterator.DEFAULT_CHUNK_SIZE, filter);
+        }
+        return parser.parse(inputStream, filter);
     }
 
     private static enum Argument implements Arguments.Argument {
         PARSER(true, "Full class name of the parser. It must implement eu.cloudtm.parser.Parser interface", "--parser"),
-        FILE(true, "Relative or full path of the log file", "--file"),
-        ANALYZER(true, "Full class name of the analyze. It must implement eu.cloudtm.parser.Analyzer interface", "--analyzer");
+        FILE(true, "Relative or full path of the log file. Multiple files (comma separated list or glob pattern, " +
+                "e.g. node*.log) are merged by timestamp", "--file"),
+        ANALYZER(true, "Full class name of the analyze. It must implement eu.cloudtm.parser.Analyzer interface. " +
+                "Multiple analyzers (comma separated list) are run in a single pass", "--analyzer"),
+        PARALLELISM(true, "(Optional) Number of threads parsing the log file. Default is 1", "--parallelism"),
+        PARTITIONS(true, "(Optional) Number of threads running each analyzer that implements " +
+                "eu.cloudtm.analyzer.PartitionedAnalyzer interface. Default is 1", "--partitions"),
+        CACHE(false, "(Optional) Reads the parsed entries from <file>" + LogCache.EXTENSION + " if it is up to date. " +
+                "Otherwise, the file is parsed and the cache is written", "--cache"),
+        FROM(true, "(Optional) Analyzes only the entries at or after this time: yyyy-MM-dd HH:mm[:ss[,SSS]], " +
+                "HH:mm[:ss[,SSS]] (in the day of the first entry) or milliseconds since the epoch", "--from"),
+        TO(true, "(Optional) Analyzes only the entries before this time. Same format as --from", "--to"),
+        FOLLOW(false, "(Optional) Keeps reading the log file(s) while they grow, like tail -f. Stop it with Ctrl-C. " +
+                "With multiple files, the entries are merged by timestamp, so no entry is analyzed while one of the " +
+                "files has no new entries", "--follow"),
+        PIPELINE(true, "(Optional) Parses and analyzes in different threads (one per analyzer), connected by a " +
+                "ring buffer. The value is how the threads wait for each other: spin, yield or park", "--pipeline"),
+        CHECKPOINT(true, "(Optional) Saves the progress and the analyzers' state in <file>" + Checkpoint.EXTENSION +
+                " every this number of seconds. The analyzers must implement " +
+                "eu.cloudtm.analyzer.CheckpointableAnalyzer interface", "--checkpoint"),
+        RESUME(false, "(Optional) Resumes the analysis from the last checkpoint (see --checkpoint). Default " +
+                "checkpoint interval is " + Checkpoint.DEFAULT_INTERVAL / 1000 + " seconds", "--resume"),
+        OUTPUT(true, "(Optional) Directory where each analyzer writes its output, in " +
+                "<directory>/<analyzer class name>.<format>. Default is the standard output", "--output"),
+        FORMAT(true, "(Optional) Format of the analyzers' records: csv, tsv or binary. Default is csv", "--format");
         private final boolean hasValue;
         private final String help;
         private final String name;
@@ -75,17 +383,32 @@ public class LogParser {
                     }
                     break;
                 case ANALYZER:
-                    className = arguments.get(name);
-                    if (className == null) {
+                    String classNames = arguments.get(name);
+                    if (classNames == null) {
                         return false;
                     }
-                    clazz = Util.loadClass(arguments.get(name));
-                    if (clazz == null || !Analyzer.class.isAssignableFrom(clazz)) {
-                        return false;
+                    for (String analyzerName : classNames.split(",")) {
+                        clazz = Util.loadClass(analyzerName.trim());
+                        if (clazz == null || !Analyzer.class.isAssignableFrom(clazz)) {
+                            return false;
+                        }
                     }
                     break;
                 case FILE:
                     return arguments.get(name) != null;
+                case PARALLELISM:
+                    return arguments.get(name) == null || isPositiveInteger(arguments.get(name));
+                case PARTITIONS:
+                    return arguments.get(name) == null || isPositiveInteger(arguments.get(name));
+                case FROM:
+                case TO:
+                    return arguments.get(name) == null || isTime(arguments.get(name));
+                case PIPELINE:
+                    return arguments.get(name) == null || isWaitStrategy(arguments.get(name));
+                case CHECKPOINT:
+                    return arguments.get(name) == null || isPositiveInteger(arguments.get(name));
+                case FORMAT:
+                    return arguments.get(name) == null || isOutputFormat(arguments.get(name));
             }
             return true;
         }
@@ -95,6 +418,41 @@ public class LogParser {
             return help;
         }
 
+        private static boolean isPositiveInteger(String value) {
+            try {
+                return Integer.parseInt(value) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private static boolean isTime(String value) {
+            try {
+                TimeIndex.parseTime(value, TimestampDecoder.INVALID);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        private static boolean isWaitStrategy(String value) {
+            try {
+                Pipeline.WaitStrategy.fromString(value);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        private static boolean isOutputFormat(String value) {
+            try {
+                OutputFormat.fromString(value);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
         @Override
         public String consoleArgument() {
             return name;
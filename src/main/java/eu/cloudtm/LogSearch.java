@@ -0,0 +1,120 @@
+package eu.cloudtm;
+
+import eu.cloudtm.parser.LogIterator;
+import eu.cloudtm.parser.RangeParser;
+import eu.cloudtm.parser.TokenIndex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints the log entries containing all the words of a query (for example, a transaction id, a key or an exception
+ * name). The first search in each log file builds its {@link TokenIndex}; the following searches only read the
+ * postings of the terms and the matching entries.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class LogSearch {
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = new Arguments(Argument.values());
+        arguments.parse(args);
+
+        Class<?> parserClass = Util.loadClass(arguments.get(Argument.PARSER));
+        List<String> files = Util.expandFiles(arguments.get(Argument.FILE));
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException(arguments.get(Argument.FILE) + " not found!");
+        }
+        List<String> words = new ArrayList<String>();
+        boolean hasTerms = false;
+        for (String word : arguments.get(Argument.QUERY).split("\\s+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+                hasTerms |= !TokenIndex.queryTerms(word).isEmpty();
+            }
+        }
+        if (!hasTerms) {
+            throw new IllegalArgumentException(Argument.QUERY.consoleArgument() + " has no word with, at least, 2 " +
+                    "letters or digits");
+        }
+
+        long start = System.nanoTime();
+        int matches = 0;
+        for (String file : files) {
+            File source = new File(file);
+            if (!source.isFile()) {
+                throw new IllegalArgumentException(file + " not found!");
+            }
+            RangeParser parser = (RangeParser) parserClass.newInstance();
+            FileInputStream inputStream = new FileInputStream(source);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                LogIterator iterator = TokenIndex.load(source, parser, channel).search(words, parser, channel);
+                while (iterator.hasNext()) {
+                    LogEntry logEntry = iterator.next();
+                    System.out.println(source.getName() + ":" + logEntry.lineNumber() + ": " + logEntry.prettyPrint());
+                    matches++;
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+        System.err.println(matches + " entries found in " + (System.nanoTime() - start) / 1000000 + " ms");
+        System.exit(0);
+    }
+
+    private static enum Argument implements Arguments.Argument {
+        PARSER(true, "Full class name of the parser. It must implement eu.cloudtm.parser.RangeParser interface",
+                "--parser"),
+        FILE(true, "Relative or full path of the log file. Multiple files (comma separated list or glob pattern, " +
+                "e.g. node*.log) are searched in order", "--file"),
+        QUERY(true, "The words (space separated) that the entries must contain, e.g. a transaction id or an " +
+                "exception name, as they appear in the message, thread or class. Case sensitive", "--query");
+        private final boolean hasValue;
+        private final String help;
+        private final String name;
+
+        private Argument(boolean hasValue, String help, String name) {
+            this.hasValue = hasValue;
+            this.help = help;
+            this.name = name;
+        }
+
+        @Override
+        public boolean hasValue() {
+            return hasValue;
+        }
+
+        @Override
+        public boolean isValid(Arguments arguments) {
+            switch (this) {
+                case PARSER:
+                    String className = arguments.get(name);
+                    if (className == null) {
+                        return false;
+                    }
+                    Class<?> clazz = Util.loadClass(className);
+                    return clazz != null && RangeParser.class.isAssignableFrom(clazz);
+                case FILE:
+                    return arguments.get(name) != null;
+                case QUERY:
+                    return arguments.get(name) != null && !arguments.get(name).trim().isEmpty();
+            }
+            return true;
+        }
+
+        @Override
+        public String help() {
+            return help;
+        }
+
+        @Override
+        public String consoleArgument() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package eu.cloudtm;
+
+import eu.cloudtm.analyzer.Analyzer;
+import eu.cloudtm.parser.LogIterator;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the parser and the analyzers in different threads. The calling thread parses the log and publishes batches of
+ * entries in a pre-allocated ring buffer, and each analyzer drains it in its own thread. When the ring buffer is full,
+ * the parser waits for the slowest analyzer.
+ * <p/>
+ * As in the sequential mode, each analyzer only receives the entries accepted by its filter, the exceptions are
+ * printed and {@link Analyzer#after()} is always invoked (in the calling thread, in the analyzers' order).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class Pipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_RING_SIZE = 64;
+    private static final long NONE = -1;
+    private final Analyzer[] analyzers;
+    private final WaitStrategy waitStrategy;
+    private final int batchSize;
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong published;
+    private final AtomicLong[] consumed;
+    private final AtomicInteger running;
+    private final Throwable[] errors;
+    private volatile boolean ended;
+
+    public Pipeline(List<Analyzer> analyzers, WaitStrategy waitStrategy) {
+        this(analyzers, waitStrategy, DEFAULT_BATCH_SIZE, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param ringSize the number of batches in the ring buffer. It must be a power of two.
+     */
+    public Pipeline(List<Analyzer> analyzers, WaitStrategy waitStrategy, int batchSize, int ringSize) {
+        if (analyzers.isEmpty()) {
+            throw new IllegalArgumentException("At least one analyzer is required");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two");
+        }
+        this.analyzers = analyzers.toArray(new Analyzer[analyzers.size()]);
+        this.waitStrategy = waitStrategy;
+        this.batchSize = batchSize;
+        this.ring = new Slot[ringSize];
+        for (int i = 0; i < ringSize; ++i) {
+            ring[i] = new Slot(batchSize);
+        }
+        this.mask = ringSize - 1;
+        this.published = new AtomicLong(NONE);
+        this.consumed = new AtomicLong[this.analyzers.length];
+        for (int i = 0; i < consumed.length; ++i) {
+            consumed[i] = new AtomicLong(NONE);
+        }
+        this.running = new AtomicInteger();
+        this.errors = new Throwable[this.analyzers.length];
+    }
+
+    /**
+     * Parses and analyzes all the entries of the iterator.
+     */
+    public final void run(LogIterator iterator) throws InterruptedException {
+        Thread[] consumers = new Thread[analyzers.length];
+        long entries = 0;
+        long start = System.nanoTime();
+        try {
+            for (Analyzer analyzer : analyzers) {
+                analyzer.before();
+            }
+            for (int i = 0; i < analyzers.length; ++i) {
+                final int index = i;
+                consumers[i] = new Thread("analyzer-" + analyzers[i].getClass().getSimpleName()) {
+                    @Override
+                    public void run() {
+                        consume(index);
+                    }
+                };
+                running.incrementAndGet();
+                consumers[i].start();
+            }
+            entries = produce(iterator);
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        } finally {
+            ended = true;
+            for (Thread consumer : consumers) {
+                if (consumer != null) {
+                    consumer.join();
+                }
+            }
+            for (int i = 0; i < analyzers.length; ++i) {
+                if (errors[i] != null) {
+                    errors[i].printStackTrace();
+                }
+                try {
+                    analyzers[i].after();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        long duration = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.err.println("Pipeline: " + entries + " entries in " + duration + " ms (" +
+                (entries * 1000 / duration) + " entries/s)");
+    }
+
+    private long produce(LogIterator iterator) throws Exception {
+        long entries = 0;
+        long sequence = 0;
+        boolean hasNext = true;
+        int idle = 0;
+        while (hasNext && running.get() > 0) {
+            //backpressure: the slot is reused only after all the analyzers consumed it
+            if (sequence - minConsumed() > ring.length) {
+                waitStrategy.idle(idle++);
+                continue;
+            }
+            idle = 0;
+            Slot slot = ring[(int) (sequence & mask)];
+            slot.clear();
+            while (slot.size < batchSize && (hasNext = iterator.hasNext())) {
+                slot.entries[slot.size++] = iterator.next().detach();
+            }
+            if (slot.size > 0) {
+                entries += slot.size;
+                published.lazySet(sequence++);
+            }
+        }
+        return entries;
+    }
+
+    private void consume(int index) {
+        Analyzer analyzer = analyzers[index];
+        LogFilter filter = analyzer.filter();
+        AtomicLong sequence = consumed[index];
+        long next = sequence.get() + 1;
+        int idle = 0;
+        try {
+            while (true) {
+                long available = published.get();
+                if (next > available) {
+                    if (ended && next > published.get()) {
+                        return;
+                    }
+                    waitStrategy.idle(idle++);
+                    continue;
+                }
+                idle = 0;
+                for (; next <= available; ++next) {
+                    Slot slot = ring[(int) (next & mask)];
+                    for (int i = 0; i < slot.size; ++i) {
+                        LogEntry logEntry = slot.entries[i];
+                        if (filter == null || filter.accept(logEntry)) {
+                            analyzer.analyze(logEntry);
+                        }
+                    }
+                    sequence.lazySet(next);
+                }
+            }
+        } catch (Throwable throwable) {
+            errors[index] = throwable;
+            //do not block the parser
+            sequence.set(Long.MAX_VALUE);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private long minConsumed() {
+        long min = Long.MAX_VALUE;
+        for (AtomicLong sequence : consumed) {
+            min = Math.min(min, sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * What a thread does while waiting for the other side of the ring buffer.
+     */
+    public static enum WaitStrategy {
+        /**
+         * Busy spin: lowest latency, but it burns a core per waiting thread.
+         */
+        SPIN {
+            @Override
+            void idle(int counter) {
+                //just spin
+            }
+        },
+        /**
+         * Spins for a while and then yields the processor.
+         */
+        YIELD {
+            @Override
+            void idle(int counter) {
+                if (counter > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        },
+        /**
+         * Spins for a while and then sleeps for a short period.
+         */
+        PARK {
+            @Override
+            void idle(int counter) {
+                if (counter > SPIN_TRIES) {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final long PARK_NANOS = 50000;
+
+        abstract void idle(int counter);
+
+        public static WaitStrategy fromString(String value) {
+            for (WaitStrategy strategy : values()) {
+                if (strategy.name().equalsIgnoreCase(value)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown wait strategy " + value);
+        }
+    }
+
+    private static class Slot {
+        private final LogEntry[] entries;
+        private int size;
+
+        private Slot(int batchSize) {
+            this.entries = new LogEntry[batchSize];
+        }
+
+        private void clear() {
+            for (int i = 0; i < size; ++i) {
+                entries[i] = null;
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package eu.cloudtm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Interns the small set of values that repeat in every log entry (levels, classes and threads). Equal values share the
+ * same {@link Symbol} instance, which has a dense integer id that can be used to index arrays.
+ * <p/>
+ * The values are looked up directly from the parser's char or byte buffer and nothing is allocated when the value
+ * already exists. The lookups do not lock and this class is thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class SymbolTable {
+
+    public static final SymbolTable LEVELS = new SymbolTable("levels");
+    public static final SymbolTable CLASSES = new SymbolTable("classes");
+    public static final SymbolTable THREADS = new SymbolTable("threads");
+    private static final int INITIAL_CAPACITY = 256;
+    private final String name;
+    private volatile Symbol[] slots;
+    private volatile Symbol[] symbols;
+    private int size;
+
+    public SymbolTable(String name) {
+        this.name = name;
+        this.slots = new Symbol[INITIAL_CAPACITY];
+        this.symbols = new Symbol[INITIAL_CAPACITY / 2];
+    }
+
+    public final Symbol intern(String value) {
+        return intern(value, 0, value.length());
+    }
+
+    /**
+     * @return the symbol of the chars between {@code start} (inclusive) and {@code end} (exclusive)
+     */
+    public final Symbol intern(CharSequence sequence, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + sequence.charAt(i);
+        }
+        Symbol[] table = slots;
+        for (int index = hash & (table.length - 1); ; index = (index + 1) & (table.length - 1)) {
+            Symbol symbol = table[index];
+            if (symbol == null) {
+                return add(hash, sequence.subSequence(start, end).toString());
+            } else if (symbol.hash == hash && symbol.equals(sequence, start, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * @see #intern(CharSequence, int, int)
+     */
+    public final Symbol intern(char[] array, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + array[i];
+        }
+        Symbol[] table = slots;
+        for (int index = hash & (table.length - 1); ; index = (index + 1) & (table.length - 1)) {
+            Symbol symbol = table[index];
+            if (symbol == null) {
+                return add(hash, new String(array, start, end - start));
+            } else if (symbol.hash == hash && symbol.equals(array, start, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * The bytes are only decoded if the value is new. Values with non-ASCII bytes are always decoded.
+     *
+     * @see #intern(CharSequence, int, int)
+     */
+    public final Symbol intern(ByteBuffer buffer, int start, int end, Charset charset) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            byte b = buffer.get(i);
+            if (b < 0) {
+                byte[] bytes = new byte[end - start];
+                for (int j = 0; j < bytes.length; ++j) {
+                    bytes[j] = buffer.get(start + j);
+                }
+                return intern(new String(bytes, charset));
+            }
+            hash = 31 * hash + b;
+        }
+        Symbol[] table = slots;
+        for (int index = hash & (table.length - 1); ; index = (index + 1) & (table.length - 1)) {
+            Symbol symbol = table[index];
+            if (symbol == null) {
+                byte[] bytes = new byte[end - start];
+                for (int j = 0; j < bytes.length; ++j) {
+                    bytes[j] = buffer.get(start + j);
+                }
+                return add(hash, new String(bytes, charset));
+            } else if (symbol.hash == hash && symbol.equals(buffer, start, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * @return the symbol with the {@code id} or {@code null} if it does not exist
+     */
+    public final Symbol symbol(int id) {
+        Symbol[] array = symbols;
+        Symbol symbol = id >= 0 && id < array.length ? array[id] : null;
+        if (symbol == null && id >= 0) {
+            synchronized (this) {
+                return id < size ? symbols[id] : null;
+            }
+        }
+        return symbol;
+    }
+
+    /**
+     * @return the number of symbols. The ids are between 0 (inclusive) and this value (exclusive)
+     */
+    public final synchronized int size() {
+        return size;
+    }
+
+    private synchronized Symbol add(int hash, String value) {
+        //other thread may have added it meanwhile
+        Symbol[] table = slots;
+        int index = hash & (table.length - 1);
+        for (Symbol symbol = table[index]; symbol != null; symbol = table[index]) {
+            if (symbol.hash == hash && symbol.value.equals(value)) {
+                return symbol;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        Symbol symbol = new Symbol(size, hash, value);
+        if (size == symbols.length) {
+            Symbol[] newSymbols = new Symbol[symbols.length * 2];
+            System.arraycopy(symbols, 0, newSymbols, 0, size);
+            symbols = newSymbols;
+        }
+        symbols[size++] = symbol;
+        if (size * 2 > table.length) {
+            //keep the load factor below 0.5. the new table is published after it is filled
+            Symbol[] newTable = new Symbol[table.length * 2];
+            for (int i = 0; i < size; ++i) {
+                Symbol existing = symbols[i];
+                int newIndex = existing.hash & (newTable.length - 1);
+                while (newTable[newIndex] != null) {
+                    newIndex = (newIndex + 1) & (newTable.length - 1);
+                }
+                newTable[newIndex] = existing;
+            }
+            slots = newTable;
+        } else {
+            table[index] = symbol;
+        }
+        return symbol;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable{" +
+                "name='" + name + '\'' +
+                ", size=" + size() +
+                '}';
+    }
+
+    /**
+     * An interned value and its id.
+     */
+    public static final class Symbol {
+        private final int id;
+        private final int hash;
+        private final String value;
+
+        private Symbol(int id, int hash, String value) {
+            this.id = id;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        public final int id() {
+            return id;
+        }
+
+        public final String value() {
+            return value;
+        }
+
+        private boolean equals(CharSequence sequence, int start, int end) {
+            if (value.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); ++i) {
+                if (value.charAt(i) != sequence.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean equals(char[] array, int start, int end) {
+            if (value.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); ++i) {
+                if (value.charAt(i) != array[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean equals(ByteBuffer buffer, int start, int end) {
+            if (value.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); ++i) {
+                if (value.charAt(i) != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
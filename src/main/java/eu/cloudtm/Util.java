@@ -3,11 +3,19 @@ package eu.cloudtm;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * @author Pedro Ruivo
@@ -66,6 +74,41 @@ public class Util {
         return null;
     }
 
+    /**
+     * Expands a comma separated list of files. Each element can be a glob pattern in the file name (for example {@code
+     * logs/node*.log}); the matching files are sorted by name.
+     */
+    public static List<String> expandFiles(String files) throws IOException {
+        List<String> result = new ArrayList<String>();
+        for (String file : files.split(",")) {
+            file = file.trim();
+            if (file.isEmpty()) {
+                continue;
+            }
+            if (!isGlob(file)) {
+                result.add(file);
+                continue;
+            }
+            Path path = Paths.get(file);
+            Path directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+            List<String> matches = new ArrayList<String>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(directory, path.getFileName().toString());
+            try {
+                for (Path match : stream) {
+                    matches.add(path.getParent() == null ? match.getFileName().toString() : match.toString());
+                }
+            } finally {
+                stream.close();
+            }
+            if (matches.isEmpty()) {
+                throw new IllegalArgumentException(file + " not found!");
+            }
+            Collections.sort(matches);
+            result.addAll(matches);
+        }
+        return result;
+    }
+
     public static Class<?> tryLoad(String name, ClassLoader loader) {
         try {
            return loader.loadClass(name);
@@ -79,6 +122,15 @@ public class Util {
         return loader.getResourceAsStream(name);
     }
 
+    private static boolean isGlob(String file) {
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            if (file.indexOf(c) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static final ClassLoader[] classLoaders() {
         return new ClassLoader[]{Thread.currentThread().getContextClassLoader(),
                 Util.class.getClassLoader(),
@@ -1,6 +1,8 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogEntryBatch;
+import eu.cloudtm.LogFilter;
 
 /**
  * //TODO: document this!
@@ -15,4 +17,22 @@ public interface Analyzer {
     void after();
 
     void analyze(LogEntry logEntry);
+
+    /**
+     * @return the filter tested by the parser before building each entry, or {@code null} to analyze all the entries.
+     *         Only the entries accepted are passed to the analyzer.
+     */
+    default LogFilter filter() {
+        return null;
+    }
+
+    /**
+     * Analyzes a batch of entries. By default, each entry is created and passed to {@link #analyze(LogEntry)}.
+     * Analyzers that override it are fed with batches.
+     */
+    default void analyzeBatch(LogEntryBatch batch) {
+        for (int i = 0; i < batch.size(); ++i) {
+            analyze(batch.entry(i));
+        }
+    }
 }
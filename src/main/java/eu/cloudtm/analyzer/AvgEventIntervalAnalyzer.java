@@ -1,39 +1,150 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogEntryBatch;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.output.RecordWriter;
 
 /**
+ * Prints the interval between consecutive commands (by default, {@code GetKeyValueCommand}; see {@link
+ * #COMMAND_PROPERTY}), one line per command.
+ * <p/>
+ * If the {@link #WINDOW_PROPERTY} is set (in milliseconds, from 1 to 60000), the commands are aggregated in time
+ * windows instead: one line per window, from the first to the last command, with the number of commands, the
+ * throughput and the minimum, mean and maximum interval. The interval of a command (since the previous one) is
+ * accounted in its window. The intervals are empty if the window has no interval (the window without commands or
+ * with only the first command). If more than {@value #MAX_EMPTY_WINDOWS} consecutive windows have no commands (for
+ * example, a log spanning several days), only the first and the last of them are printed.
+ *
  * @author Pedro Ruivo
  * @since 2.8
  */
 public class AvgEventIntervalAnalyzer implements Analyzer {
 
+    private static final String COMMAND_PROPERTY = "avgEvent.command";
+    private static final String WINDOW_PROPERTY = "avgEvent.window";
+    private static final String COMMAND_PREFIX = "Invoked with command ";
+    private static final String DEFAULT_COMMAND = "GetKeyValueCommand";
+    private static final long MAX_WINDOW = 60000;
+    private static final long MAX_EMPTY_WINDOWS = 10000;
+    private final String command;
+    private final long window;
+    private RecordWriter output;
     private long lastOpTimestamp;
     private int counter;
+    //current window
+    private long windowStart;
+    private long windowCount;
+    private long intervalCount;
+    private long minInterval;
+    private long maxInterval;
+    private long sumInterval;
+
+    public AvgEventIntervalAnalyzer() {
+        command = COMMAND_PREFIX + System.getProperty(COMMAND_PROPERTY, DEFAULT_COMMAND);
+        window = Long.getLong(WINDOW_PROPERTY, 0);
+        if (System.getProperty(WINDOW_PROPERTY) != null && (window < 1 || window > MAX_WINDOW)) {
+            throw new IllegalArgumentException(WINDOW_PROPERTY + " must be between 1 and " + MAX_WINDOW +
+                    " milliseconds");
+        }
+    }
 
     @Override
     public void before() {
         lastOpTimestamp = -1;
         counter = 0;
-        System.out.println("OpNumber,timestamp,duration");
+        windowCount = 0;
+        output = Outputs.writer(getClass());
+        if (window == 0) {
+            output.header("OpNumber", "timestamp", "duration");
+        } else {
+            output.header("windowStart", "count", "opsPerSecond", "minInterval", "meanInterval", "maxInterval");
+        }
     }
 
     @Override
     public void after() {
-        //
+        if (windowCount > 0) {
+            printWindow();
+        }
+    }
+
+    @Override
+    public LogFilter filter() {
+        return new LogFilter().messageStartsWith(command);
     }
 
     @Override
     public void analyze(LogEntry logEntry) {
-        if (logEntry.message().startsWith("Invoked with command GetKeyValueCommand")) {
-            if (lastOpTimestamp == -1) {
-                lastOpTimestamp = logEntry.time();
-                System.out.println(counter++ + "," + logEntry.time() + ",0");
-            } else {
-                long duration = logEntry.time() - lastOpTimestamp;
-                lastOpTimestamp = logEntry.time();
-                System.out.println(counter++ + "," + logEntry.time() + "," + duration);
+        if (logEntry.startsWith(command)) {
+            event(logEntry.time());
+        }
+    }
+
+    @Override
+    public void analyzeBatch(LogEntryBatch batch) {
+        long[] times = batch.times();
+        for (int i = 0; i < batch.size(); ++i) {
+            if (batch.startsWith(i, command)) {
+                event(times[i]);
             }
         }
     }
+
+    private void event(long time) {
+        boolean first = lastOpTimestamp == -1;
+        long duration = first ? 0 : time - lastOpTimestamp;
+        lastOpTimestamp = time;
+        if (window == 0) {
+            output.field(counter++).field(time).field(duration).endRecord();
+            return;
+        }
+        //the commands out of order are accounted in the current window
+        if (windowCount > 0 && time >= windowStart + window) {
+            printWindow();
+            //the windows without commands
+            long start = time - time % window;
+            long firstEmpty = windowStart + window;
+            long emptyWindows = (start - firstEmpty) / window;
+            for (windowStart = firstEmpty; windowStart < start; windowStart += window) {
+                if (emptyWindows > MAX_EMPTY_WINDOWS && windowStart == firstEmpty + window) {
+                    //a long gap is summarized by its first and last windows
+                    windowStart = start - window;
+                }
+                printEmptyWindow();
+            }
+            windowCount = 0;
+        }
+        if (windowCount == 0) {
+            windowStart = time - time % window;
+            intervalCount = 0;
+        }
+        windowCount++;
+        if (first) {
+            //the first command has no interval
+            return;
+        }
+        if (intervalCount == 0) {
+            minInterval = maxInterval = sumInterval = duration;
+        } else {
+            minInterval = Math.min(minInterval, duration);
+            maxInterval = Math.max(maxInterval, duration);
+            sumInterval += duration;
+        }
+        intervalCount++;
+    }
+
+    private void printEmptyWindow() {
+        output.field(windowStart).field(0).field(0.0).field("").field("").field("").endRecord();
+    }
+
+    private void printWindow() {
+        output.field(windowStart).field(windowCount).field((double) windowCount * 1000 / window);
+        if (intervalCount == 0) {
+            output.field("").field("").field("").endRecord();
+        } else {
+            output.field(minInterval).field((double) sumInterval / intervalCount).field(maxInterval).endRecord();
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package eu.cloudtm.analyzer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An analyzer whose state can be saved in a checkpoint, so a long analysis can be resumed from the last checkpoint
+ * (see {@link eu.cloudtm.Checkpoint}).
+ * <p/>
+ * The results must be written in {@link #after()}: the output written while analyzing is not part of the checkpoint,
+ * so an analyzer that prints its results as it goes cannot be resumed.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public interface CheckpointableAnalyzer extends Analyzer {
+
+    /**
+     * @return the options that change the analyzer's state (for example, its system properties). A checkpoint is only
+     *         restored if it was taken with the same configuration
+     */
+    default String checkpointConfiguration() {
+        return "";
+    }
+
+    /**
+     * Writes the state built from the entries analyzed so far.
+     */
+    void saveState(DataOutput output) throws IOException;
+
+    /**
+     * Restores the state written by {@link #saveState(DataOutput)}. It is invoked after {@link #before()}.
+     */
+    void restoreState(DataInput input) throws IOException;
+}
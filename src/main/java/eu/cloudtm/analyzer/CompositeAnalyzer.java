@@ -0,0 +1,74 @@
+package eu.cloudtm.analyzer;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs multiple analyzers over the same log, in a single pass. Each entry is only passed to the analyzers whose
+ * {@link Analyzer#filter()} accepts it.
+ * <p/>
+ * The filter pushed down to the parser is the union of the analyzers' filters, when it can be expressed (see {@link
+ * LogFilter#anyOf(List)}).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class CompositeAnalyzer implements Analyzer {
+
+    private final Analyzer[] analyzers;
+    private final LogFilter[] filters;
+
+    public CompositeAnalyzer(List<Analyzer> analyzers) {
+        if (analyzers.isEmpty()) {
+            throw new IllegalArgumentException("At least one analyzer is required");
+        }
+        this.analyzers = analyzers.toArray(new Analyzer[analyzers.size()]);
+        this.filters = new LogFilter[this.analyzers.length];
+        for (int i = 0; i < filters.length; ++i) {
+            filters[i] = this.analyzers[i].filter();
+        }
+    }
+
+    @Override
+    public void before() {
+        for (Analyzer analyzer : analyzers) {
+            analyzer.before();
+        }
+    }
+
+    /**
+     * The report of every analyzer is produced, even if one of them fails.
+     */
+    @Override
+    public void after() {
+        for (Analyzer analyzer : analyzers) {
+            try {
+                analyzer.after();
+            } catch (RuntimeException e) {
+                System.err.println("Error in " + analyzer.getClass().getSimpleName() + " report");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void analyze(LogEntry logEntry) {
+        for (int i = 0; i < analyzers.length; ++i) {
+            if (filters[i] == null || filters[i].accept(logEntry)) {
+                analyzers[i].analyze(logEntry);
+            }
+        }
+    }
+
+    @Override
+    public LogFilter filter() {
+        List<LogFilter> list = new ArrayList<LogFilter>(filters.length);
+        for (LogFilter filter : filters) {
+            list.add(filter);
+        }
+        return LogFilter.anyOf(list);
+    }
+}
@@ -1,11 +1,13 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.output.RecordWriter;
 
 import java.io.*;
 import java.util.*;
-
-import static eu.cloudtm.Util.LINE_SEPARATOR;
+import java.util.regex.Pattern;
 
 /**
  * @author Pedro Ruivo
@@ -18,10 +20,12 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
     private static final String WRITE_TO_FILE_PROPERTY = "writeToFile";
     private static final String FILE_NAME_FORMAT = "./%s.%s.log";
     private static final String FILE_NAME_FORMAT_IF_EXISTS = "./%s.%s(%s).log";
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
     private final Set<String> classList;
     private final Set<String> methodList;
     private final Map<String, TestState> testStateMap;
     private final boolean writeToFile;
+    private RecordWriter output;
 
     public ISPNTestSuiteAnalyzer() {
         writeToFile = Boolean.getBoolean(WRITE_TO_FILE_PROPERTY);
@@ -43,14 +47,37 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
     @Override
     public void before() {
         testStateMap.clear();
-        System.out.println("filtering test classes: " + classList);
-        System.out.println("filtering test methods: " + methodList);
-        System.out.println("write to file? " + writeToFile);
+        output = Outputs.writer(getClass());
+        output.line("filtering test classes: " + classList);
+        output.line("filtering test methods: " + methodList);
+        output.line("write to file? " + writeToFile);
     }
 
     @Override
     public void after() {
-        //no-op
+        //closes the files of the tests not finished
+        for (TestState state : testStateMap.values()) {
+            closeFile(state);
+        }
+        testStateMap.clear();
+    }
+
+    /**
+     * Only the threads whose name contains one of the test classes are analyzed.
+     */
+    @Override
+    public LogFilter filter() {
+        if (classList.isEmpty()) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String clazz : classList) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append(Pattern.quote(clazz));
+        }
+        return new LogFilter().threadPattern(regex.toString());
     }
 
     @Override
@@ -61,16 +88,16 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
         }
         TestState state = getOrCreate(testClass);
         if (state.started) {
-            state.printStream.println(logEntry.prettyPrint());
-            state.finished = testFinished(logEntry.message());
+            print(state, logEntry.prettyPrint());
+            state.finished = testFinished(logEntry.firstLine());
             if (state.finished) {
                 endTest(testClass, state);
             }
         } else {
-            String testMethod = extractTestMethodIfStarting(logEntry.message());
+            String testMethod = extractTestMethodIfStarting(logEntry.firstLine());
             if (state.started = testStarted(testMethod)) {
                 init(testClass, testMethod, state);
-                state.printStream.println(logEntry.prettyPrint());
+                print(state, logEntry.prettyPrint());
             }
         }
     }
@@ -86,33 +113,51 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
     }
 
     private void endTest(String testClass, TestState state) {
-        if (state.printStream != null && writeToFile) {
-            state.printStream.close();
-        }
+        closeFile(state);
         testStateMap.remove(testClass);
     }
 
+    private void closeFile(TestState state) {
+        if (state.file == null) {
+            return;
+        }
+        state.file.close();
+        state.file = null;
+    }
+
+    /**
+     * The test's file is written directly (buffered): it is only read after the analysis.
+     */
+    private void print(TestState state, String text) {
+        if (state.file != null) {
+            state.file.println(text);
+        } else {
+            state.output.line(text);
+        }
+    }
+
     private void init(String testClass, String testName, TestState state) {
         if (writeToFile) {
             File fileToWrite = createFile(testClass, testName);
             if (fileToWrite == null) {
                 System.err.println("Cannot create file for " + testClass + "." + testName + ". Writing to STDOUT");
-                state.printStream = System.out;
+                state.output = output;
             } else {
                 try {
-                    state.printStream = new PrintStream(new FileOutputStream(fileToWrite));
-                    System.out.println(testClass + "." + testName + " writing to " + fileToWrite.getAbsolutePath());
-                } catch (FileNotFoundException e) {
+                    state.file = new PrintStream(new BufferedOutputStream(new FileOutputStream(fileToWrite),
+                            FILE_BUFFER_SIZE), false, "UTF-8");
+                    output.line(testClass + "." + testName + " writing to " + fileToWrite.getAbsolutePath());
+                } catch (IOException e) {
                     e.printStackTrace();
-                    state.printStream = System.out;
+                    state.output = output;
                 }
             }
         } else {
-            state.printStream = System.out;
+            state.output = output;
         }
         //sanity check
-        if (state.printStream == null) {
-            throw new IllegalStateException("PrintStream cannot be null!!");
+        if (state.output == null && state.file == null) {
+            throw new IllegalStateException("Output cannot be null!!");
         }
     }
 
@@ -150,8 +195,7 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
         return null;
     }
 
-    private String extractTestMethodIfStarting(String message) {
-        String line = message.split(LINE_SEPARATOR)[0];
+    private String extractTestMethodIfStarting(String line) {
         //Starting test testName(testClass)
         if (line.startsWith("Starting test")) {
             String method = line.split(" ")[2];
@@ -164,9 +208,8 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
         return testMethod != null && methodList.contains(testMethod);
     }
 
-    private boolean testFinished(String message) {
+    private boolean testFinished(String line) {
         boolean result = false;
-        String line = message.split(LINE_SEPARATOR)[0];
         //Test testName(testClass) succeeded.|failed.
         if (line.startsWith("Test") && (line.endsWith("succeeded.") || line.endsWith("failed."))) {
             String method = line.split(" ")[1];
@@ -179,6 +222,7 @@ public class ISPNTestSuiteAnalyzer implements Analyzer {
     private class TestState {
         private boolean started;
         private boolean finished;
-        private PrintStream printStream;
+        private RecordWriter output;
+        private PrintStream file;
     }
 }
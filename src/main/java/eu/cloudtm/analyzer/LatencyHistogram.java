@@ -0,0 +1,162 @@
+package eu.cloudtm.analyzer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Records values (for example, durations) in log-linear buckets, like the HdrHistogram: the values below 256 have
+ * their own bucket and each power of two above it is divided in 128 buckets. The percentiles have a relative error
+ * below 1% and the memory used is fixed. The count, minimum, maximum and mean are exact.
+ * <p/>
+ * The negative values are recorded in the bucket of 0 (but the minimum and the mean are exact).
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+    private final long[] counts;
+    private long count;
+    private long min;
+    private long max;
+    private long sum;
+
+    public LatencyHistogram() {
+        counts = new long[BUCKETS];
+        clear();
+    }
+
+    public final void clear() {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = 0;
+        }
+        count = sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public final void record(long value) {
+        counts[index(Math.max(0, value))]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public final long count() {
+        return count;
+    }
+
+    /**
+     * @return the minimum value or 0 if no value was recorded
+     */
+    public final long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the maximum value or 0 if no value was recorded
+     */
+    public final long max() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return the mean value or 0 if no value was recorded
+     */
+    public final double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value equivalent (i.e., in the same bucket) to the value at the percentile, bounded by the
+     *         minimum and maximum. 0 if no value was recorded
+     */
+    public final long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.max(min, Math.min(max, highestValue(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Writes the non-empty buckets.
+     */
+    public final void save(DataOutput output) throws IOException {
+        output.writeLong(count);
+        output.writeLong(min);
+        output.writeLong(max);
+        output.writeLong(sum);
+        int buckets = 0;
+        for (long bucketCount : counts) {
+            if (bucketCount != 0) {
+                buckets++;
+            }
+        }
+        output.writeInt(buckets);
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] != 0) {
+                output.writeInt(i);
+                output.writeLong(counts[i]);
+            }
+        }
+    }
+
+    public final void restore(DataInput input) throws IOException {
+        clear();
+        count = input.readLong();
+        min = input.readLong();
+        max = input.readLong();
+        sum = input.readLong();
+        int buckets = input.readInt();
+        for (int i = 0; i < buckets; ++i) {
+            int index = input.readInt();
+            if (index < 0 || index >= counts.length) {
+                throw new IOException("Invalid bucket " + index);
+            }
+            counts[index] = input.readLong();
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        //the SUB_BUCKET_BITS most significant bits select the bucket
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long mantissa = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        long value = ((mantissa + 1) << shift) - 1;
+        return value < 0 ? Long.MAX_VALUE : value;
+    }
+}
@@ -1,14 +1,25 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.output.Outputs;
 
-import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
+ * The locks are tracked per transaction, so the log can be partitioned by transaction (see {@link
+ * PartitionedAnalyzer}).
+ * <p/>
+ * The transaction and lock ids are read from the message without creating strings and are interned in {@link
+ * OffHeapStore}s: each id is a record index. The locks held are a {@link LongHashSet} of (transaction, lock) pairs.
+ * The records of a transaction (or lock) are removed when it holds (or is held by) no lock, so the memory used depends
+ * on the number of locks held and not on the number of lock events.
+ *
  * @author Pedro Ruivo
  * @since 1.0
  */
-public class LockAnalyzer implements Analyzer {
+public class LockAnalyzer implements PartitionedAnalyzer<LockAnalyzer>, CheckpointableAnalyzer {
 
     private static final String LOCK_ID_PROPERTY = "lockId";
     private static final String SUCCESS = "SUCCESS";
@@ -16,141 +27,250 @@ public class LockAnalyzer implements Analyzer {
     private static final String ACQUIRE_EXCLUSIVE_STRING = "tryAcquire";
     private static final String RELEASE_SHARED_STRING = "tryReleaseShared";
     private static final String RELEASE_EXCLUSIVE_STRING = "tryRelease";
-    private final Set<String> lockIdsFilter;
-    private final Map<String, Transaction> transactionMap;
+    private static final MessageClassifier<LockEvent> CLASSIFIER = new MessageClassifier<LockEvent>()
+            .addSubstring(ACQUIRE_EXCLUSIVE_STRING, LockEvent.ACQUIRE)
+            .addSubstring(ACQUIRE_SHARED_STRING, LockEvent.ACQUIRE)
+            .addSubstring(RELEASE_SHARED_STRING, LockEvent.RELEASE)
+            .addSubstring(RELEASE_EXCLUSIVE_STRING, LockEvent.RELEASE);
+    //the number of locks held by a transaction or the number of transactions holding a lock
+    private static final int COUNT = 0;
+    private static final int RECORD_SIZE = 4;
+    private final String[] lockIdsFilter;
+    private final OffHeapStore transactionIds;
+    private final OffHeapStore lockIds;
+    private final LongHashSet locksHeld;
+    //the bounds of the last parsed message
+    private int transactionStart;
+    private int transactionEnd;
+    private int lockIdStart;
+    private int lockIdEnd;
 
     public LockAnalyzer() {
         String property = System.getProperty(LOCK_ID_PROPERTY);
         if (property == null) {
-            lockIdsFilter = Collections.emptySet();
+            lockIdsFilter = new String[0];
         } else {
-            lockIdsFilter = extractLockIds(property);
+            lockIdsFilter = property.split(",");
         }
-        transactionMap = new HashMap<String, Transaction>();
+        transactionIds = new OffHeapStore(RECORD_SIZE);
+        lockIds = new OffHeapStore(RECORD_SIZE);
+        locksHeld = new LongHashSet();
     }
 
     @Override
     public void before() {
-        transactionMap.clear();
+        transactionIds.clear();
+        lockIds.clear();
+        locksHeld.clear();
     }
 
     @Override
     public void after() {
         int errors = 0;
-        for (Transaction transaction : transactionMap.values()) {
-            if (!transaction.check()) {
-                errors++;
+        long[] pairs = locksHeld.toSortedArray();
+        //the pairs are sorted by transaction
+        for (int start = 0, end; start < pairs.length; start = end) {
+            int transaction = transaction(pairs[start]);
+            StringBuilder locks = new StringBuilder();
+            for (end = start; end < pairs.length && transaction(pairs[end]) == transaction; ++end) {
+                locks.append(end == start ? "[" : ", ").append(lockIds.key(lock(pairs[end])));
             }
+            System.err.println("Transaction " + transactionIds.key(transaction) + " has pending locks: " + locks +
+                    "]");
+            errors++;
         }
-        System.out.println("Error found: " + errors);
+        Outputs.writer(getClass()).line("Error found: " + errors);
     }
 
     @Override
     public void analyze(LogEntry logEntry) {
         final String message = logEntry.message();
-        if (message.contains(ACQUIRE_EXCLUSIVE_STRING) || message.contains(ACQUIRE_SHARED_STRING)) {
-            acquire(parse(message));
-        } else if (message.contains(RELEASE_SHARED_STRING) || message.contains(RELEASE_EXCLUSIVE_STRING)) {
-            release(parse(message));
-        }
-    }
-
-    private void release(LockEntry parse) {
-        if (parse == null) {
+        LockEvent event = CLASSIFIER.classify(message);
+        if (event == null || !parse(message)) {
             return;
         }
-        if (parse.success && analyzeLock(parse.lockId)) {
-            Transaction transaction = transactionMap.get(parse.transaction);
-            if (transaction == null) {
-                transaction = new Transaction(parse.transaction);
-                transactionMap.put(parse.transaction, transaction);
-            }
-            transaction.release(parse.lockId);
+        if (event == LockEvent.ACQUIRE) {
+            acquire(message, transactionStart, transactionEnd, message, lockIdStart, lockIdEnd);
+        } else {
+            release(message);
         }
     }
 
-    private void acquire(LockEntry parse) {
-        if (parse == null) {
-            return;
-        }
-        if (parse.success && analyzeLock(parse.lockId)) {
-            Transaction transaction = transactionMap.get(parse.transaction);
-            if (transaction == null) {
-                transaction = new Transaction(parse.transaction);
-                transactionMap.put(parse.transaction, transaction);
-            }
-            transaction.acquire(parse.lockId);
+    /**
+     * @return the transaction, i.e., the first word of the lock events
+     */
+    @Override
+    public Object partitionKey(LogEntry logEntry) {
+        final String message = logEntry.message();
+        if (CLASSIFIER.classify(message) == null) {
+            return null;
         }
+        int space = message.indexOf(' ');
+        return space == -1 ? message : message.substring(0, space);
     }
 
-    private boolean analyzeLock(String lockId) {
-        return lockIdsFilter.isEmpty() || lockIdsFilter.contains(lockId);
+    @Override
+    public LockAnalyzer newShard() {
+        return new LockAnalyzer();
     }
 
-    private LockEntry parse(String message) {
-        try {
-            String[] spaceSplit = message.split(" ");
-            String transaction = spaceSplit[0];
-            String success = spaceSplit[3];
-            String id = message.split("[()]", 3)[1];
-            return new LockEntry(transaction, id, success);
-        } catch (Exception e) {
-            //System.err.println("Exception: " + e + ": " + message);
-            //e.printStackTrace();
-            return null;
+    @Override
+    public void merge(LockAnalyzer shard) {
+        //each transaction is in a single shard
+        for (long pair : shard.locksHeld.toSortedArray()) {
+            String transaction = shard.transactionIds.key(transaction(pair));
+            String lockId = shard.lockIds.key(lock(pair));
+            acquire(transaction, 0, transaction.length(), lockId, 0, lockId.length());
         }
     }
 
-    private Set<String> extractLockIds(String values) {
-        return new HashSet<String>(Arrays.asList(values.split(",")));
+    @Override
+    public String checkpointConfiguration() {
+        return LOCK_ID_PROPERTY + "=" + String.join(",", lockIdsFilter);
     }
 
-    private class LockEntry {
-        private final String transaction;
-        private final String lockId;
-        private final boolean success;
-
-        public LockEntry(String transaction, String lockId, String success) {
-            this.transaction = transaction;
-            this.lockId = lockId;
-            this.success = SUCCESS.equals(success);
+    @Override
+    public void saveState(DataOutput output) throws IOException {
+        long[] pairs = locksHeld.toSortedArray();
+        output.writeInt(transactionIds.size());
+        for (int start = 0, end; start < pairs.length; start = end) {
+            int transaction = transaction(pairs[start]);
+            output.writeUTF(transactionIds.key(transaction));
+            output.writeInt(transactionIds.getInt(transaction, COUNT));
+            for (end = start; end < pairs.length && transaction(pairs[end]) == transaction; ++end) {
+                output.writeUTF(lockIds.key(lock(pairs[end])));
+            }
         }
+    }
 
-        @Override
-        public String toString() {
-            return "LockEntry{" +
-                    "transaction='" + transaction + '\'' +
-                    ", lockId='" + lockId + '\'' +
-                    ", success='" + success + '\'' +
-                    '}';
+    @Override
+    public void restoreState(DataInput input) throws IOException {
+        before();
+        int transactions = input.readInt();
+        for (int i = 0; i < transactions; ++i) {
+            String transaction = input.readUTF();
+            int locks = input.readInt();
+            for (int j = 0; j < locks; ++j) {
+                String lockId = input.readUTF();
+                acquire(transaction, 0, transaction.length(), lockId, 0, lockId.length());
+            }
         }
     }
 
-    private final class Transaction {
-        private final String transaction;
-        private final Set<String> locks;
+    private void acquire(CharSequence transactionSequence, int transactionStart, int transactionEnd,
+                         CharSequence lockIdSequence, int lockIdStart, int lockIdEnd) {
+        int transaction = intern(transactionIds, transactionSequence, transactionStart, transactionEnd);
+        int lock = intern(lockIds, lockIdSequence, lockIdStart, lockIdEnd);
+        if (locksHeld.add(pair(transaction, lock))) {
+            increment(transactionIds, transaction, 1);
+            increment(lockIds, lock, 1);
+        }
+    }
 
-        public Transaction(String transaction) {
-            this.transaction = transaction;
-            locks = new HashSet<String>();
+    private void release(String message) {
+        int transaction = transactionIds.get(message, transactionStart, transactionEnd);
+        int lock = lockIds.get(message, lockIdStart, lockIdEnd);
+        if (transaction == -1 || lock == -1 || !locksHeld.remove(pair(transaction, lock))) {
+            System.err.println("Transaction " + message.substring(transactionStart, transactionEnd) +
+                    " released twice lock " + message.substring(lockIdStart, lockIdEnd));
+            return;
         }
+        increment(transactionIds, transaction, -1);
+        increment(lockIds, lock, -1);
+    }
 
-        public final void acquire(String lockId) {
-            locks.add(lockId);
+    /**
+     * Parses a lock event: the transaction is the first word, the result is the fourth word and the lock id is
+     * between parenthesis. Only the successful events of the analyzed locks (see {@link #LOCK_ID_PROPERTY}) are
+     * accepted.
+     *
+     * @return {@code true} if the event is accepted. The transaction and lock id bounds are stored in this analyzer.
+     */
+    private boolean parse(String message) {
+        int space = message.indexOf(' ');
+        if (space == -1) {
+            return false;
+        }
+        transactionStart = 0;
+        transactionEnd = space;
+        int resultStart = space + 1;
+        for (int i = 0; i < 2; ++i) {
+            resultStart = message.indexOf(' ', resultStart) + 1;
+            if (resultStart == 0) {
+                return false;
+            }
+        }
+        int resultEnd = message.indexOf(' ', resultStart);
+        if (resultEnd == -1) {
+            resultEnd = message.length();
+        }
+        if (resultEnd - resultStart != SUCCESS.length() || !message.startsWith(SUCCESS, resultStart)) {
+            return false;
         }
+        int parenthesis = nextParenthesis(message, 0);
+        if (parenthesis == -1) {
+            return false;
+        }
+        lockIdStart = parenthesis + 1;
+        lockIdEnd = nextParenthesis(message, lockIdStart);
+        if (lockIdEnd == -1) {
+            lockIdEnd = message.length();
+        }
+        return analyzeLock(message);
+    }
 
-        public final void release(String lockId) {
-            if (!locks.remove(lockId)) {
-                System.err.println("Transaction " + transaction + " released twice lock " + lockId);
+    private boolean analyzeLock(String message) {
+        if (lockIdsFilter.length == 0) {
+            return true;
+        }
+        for (String lockId : lockIdsFilter) {
+            if (lockId.length() == lockIdEnd - lockIdStart && message.startsWith(lockId, lockIdStart)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        public final boolean check() {
-            if (!locks.isEmpty()) {
-                System.err.println("Transaction " + transaction + " has pending locks: " + locks);
-                return false;
+    private static int nextParenthesis(String message, int start) {
+        for (int i = start; i < message.length(); ++i) {
+            char c = message.charAt(i);
+            if (c == '(' || c == ')') {
+                return i;
             }
-            return true;
         }
+        return -1;
+    }
+
+    private static int intern(OffHeapStore ids, CharSequence sequence, int start, int end) {
+        int id = ids.get(sequence, start, end);
+        return id == -1 ? ids.add(sequence, start, end) : id;
+    }
+
+    /**
+     * Adds {@code delta} to the id's count. The id is removed when its count is zero.
+     */
+    private static void increment(OffHeapStore ids, int id, int delta) {
+        int count = ids.getInt(id, COUNT) + delta;
+        if (count == 0) {
+            ids.remove(id);
+        } else {
+            ids.putInt(id, COUNT, count);
+        }
+    }
+
+    private static long pair(int transaction, int lock) {
+        return ((long) transaction << 32) | lock;
+    }
+
+    private static int transaction(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    private static int lock(long pair) {
+        return (int) pair;
+    }
+
+    private static enum LockEvent {
+        ACQUIRE, RELEASE
     }
 }
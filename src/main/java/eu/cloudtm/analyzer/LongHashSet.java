@@ -0,0 +1,134 @@
+package eu.cloudtm.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative longs, without boxing: the values are kept in an open-addressing (linear probing) table.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class LongHashSet {
+
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 64;
+    private long[] table;
+    private int mask;
+    private int size;
+
+    public LongHashSet() {
+        table = new long[INITIAL_CAPACITY];
+        Arrays.fill(table, EMPTY);
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final void clear() {
+        Arrays.fill(table, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * @return {@code true} if the value was not in the set
+     */
+    public final boolean add(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        int slot = hash(value) & mask;
+        for (long current = table[slot]; current != EMPTY; current = table[slot]) {
+            if (current == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size * 2 > table.length) {
+            resize();
+        }
+        return true;
+    }
+
+    public final boolean contains(long value) {
+        for (int slot = hash(value) & mask; ; slot = (slot + 1) & mask) {
+            long current = table[slot];
+            if (current == value) {
+                return true;
+            } else if (current == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the value was in the set
+     */
+    public final boolean remove(long value) {
+        int slot = hash(value) & mask;
+        for (long current = table[slot]; current != value; current = table[slot]) {
+            if (current == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        //backward shift deletion: the following values are moved to keep the probe sequences without holes
+        int next = slot;
+        while (true) {
+            table[slot] = EMPTY;
+            long current;
+            do {
+                next = (next + 1) & mask;
+                current = table[next];
+                if (current == EMPTY) {
+                    size--;
+                    return true;
+                }
+            } while (((next - (hash(current) & mask)) & mask) < ((next - slot) & mask));
+            table[slot] = current;
+            slot = next;
+        }
+    }
+
+    /**
+     * @return the values, sorted
+     */
+    public final long[] toSortedArray() {
+        long[] values = new long[size];
+        int index = 0;
+        for (long value : table) {
+            if (value != EMPTY) {
+                values[index++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    private void resize() {
+        long[] oldTable = table;
+        table = new long[oldTable.length * 2];
+        Arrays.fill(table, EMPTY);
+        mask = table.length - 1;
+        for (long value : oldTable) {
+            if (value != EMPTY) {
+                int slot = hash(value) & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package eu.cloudtm.analyzer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Classifies messages by a set of literal prefixes and substrings, each one associated to a type (for example, an
+ * event enum). The message is scanned once by an Aho-Corasick automaton, regardless of the number of literals.
+ * <p/>
+ * When more than one literal matches, the type of the literal added first wins. The automaton is built on the first
+ * classification; after that, no more literals can be added and the classifier can be shared by multiple threads.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class MessageClassifier<T> {
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private final List<String> literals;
+    private final List<Boolean> prefixes;
+    private final List<T> types;
+    private volatile Automaton automaton;
+
+    public MessageClassifier() {
+        literals = new ArrayList<String>();
+        prefixes = new ArrayList<Boolean>();
+        types = new ArrayList<T>();
+    }
+
+    /**
+     * Messages starting with {@code prefix} are classified as {@code type}.
+     */
+    public final synchronized MessageClassifier<T> addPrefix(String prefix, T type) {
+        return add(prefix, true, type);
+    }
+
+    /**
+     * Messages containing {@code substring} are classified as {@code type}.
+     */
+    public final synchronized MessageClassifier<T> addSubstring(String substring, T type) {
+        return add(substring, false, type);
+    }
+
+    /**
+     * @return the type of the first literal (in the order they were added) matching the message, or {@code null} if
+     *         none matches
+     */
+    public final T classify(CharSequence message) {
+        Automaton current = automaton;
+        if (current == null) {
+            current = build();
+        }
+        int match = current.match(message);
+        return match == NONE ? null : types.get(match);
+    }
+
+    private MessageClassifier<T> add(String literal, boolean prefix, T type) {
+        if (literal == null || literal.isEmpty()) {
+            throw new IllegalArgumentException("Literal cannot be empty");
+        }
+        if (type == null) {
+            throw new NullPointerException("Type cannot be null");
+        }
+        if (automaton != null) {
+            throw new IllegalStateException("Classifier already in use");
+        }
+        literals.add(literal);
+        prefixes.add(prefix);
+        types.add(type);
+        return this;
+    }
+
+    private synchronized Automaton build() {
+        if (automaton == null) {
+            automaton = new Automaton(literals, prefixes);
+        }
+        return automaton;
+    }
+
+    /**
+     * A deterministic automaton: the goto function of the trie is completed with the failure links, so each char is a
+     * single table lookup. Only the chars that appear in the literals have a column in the table.
+     */
+    private static class Automaton {
+        private final char[] alphabet;
+        private final int[] asciiIndex;
+        private final int columns;
+        private final int[] next;
+        private final int[] depth;
+        //best literal ending in the state, matching anywhere (substrings) or only from the start (prefixes)
+        private final int[] substringMatch;
+        private final int[] prefixMatch;
+        private final boolean hasSubstrings;
+        private final int maxPrefixLength;
+
+        private Automaton(List<String> literals, List<Boolean> prefixes) {
+            //alphabet
+            StringBuilder chars = new StringBuilder();
+            for (String literal : literals) {
+                for (int i = 0; i < literal.length(); ++i) {
+                    if (chars.indexOf(String.valueOf(literal.charAt(i))) == -1) {
+                        chars.append(literal.charAt(i));
+                    }
+                }
+            }
+            alphabet = chars.toString().toCharArray();
+            Arrays.sort(alphabet);
+            asciiIndex = new int[128];
+            Arrays.fill(asciiIndex, -1);
+            for (int i = 0; i < alphabet.length; ++i) {
+                if (alphabet[i] < 128) {
+                    asciiIndex[alphabet[i]] = i;
+                }
+            }
+            columns = alphabet.length;
+
+            //trie
+            int maxStates = 1;
+            for (String literal : literals) {
+                maxStates += literal.length();
+            }
+            int[] trie = new int[maxStates * columns];
+            Arrays.fill(trie, -1);
+            int[] stateDepth = new int[maxStates];
+            int[] substring = new int[maxStates];
+            int[] prefix = new int[maxStates];
+            Arrays.fill(substring, NONE);
+            Arrays.fill(prefix, NONE);
+            int states = 1;
+            boolean substrings = false;
+            int maxPrefix = 0;
+            for (int index = 0; index < literals.size(); ++index) {
+                String literal = literals.get(index);
+                int state = 0;
+                for (int i = 0; i < literal.length(); ++i) {
+                    int column = state * columns + indexOf(literal.charAt(i));
+                    if (trie[column] == -1) {
+                        stateDepth[states] = stateDepth[state] + 1;
+                        trie[column] = states++;
+                    }
+                    state = trie[column];
+                }
+                if (prefixes.get(index)) {
+                    prefix[state] = Math.min(prefix[state], index);
+                    maxPrefix = Math.max(maxPrefix, literal.length());
+                } else {
+                    substring[state] = Math.min(substring[state], index);
+                    substrings = true;
+                }
+            }
+
+            //failure links, in breadth first order
+            int[] failure = new int[states];
+            int[] table = new int[states * columns];
+            Queue<Integer> queue = new ArrayDeque<Integer>();
+            for (int c = 0; c < columns; ++c) {
+                int child = trie[c];
+                if (child == -1) {
+                    table[c] = 0;
+                } else {
+                    table[c] = child;
+                    failure[child] = 0;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                //a substring ending in the failure state also ends here
+                substring[state] = Math.min(substring[state], substring[failure[state]]);
+                for (int c = 0; c < columns; ++c) {
+                    int child = trie[state * columns + c];
+                    if (child == -1) {
+                        table[state * columns + c] = table[failure[state] * columns + c];
+                    } else {
+                        table[state * columns + c] = child;
+                        failure[child] = table[failure[state] * columns + c];
+                        queue.add(child);
+                    }
+                }
+            }
+            next = table;
+            depth = Arrays.copyOf(stateDepth, states);
+            substringMatch = Arrays.copyOf(substring, states);
+            prefixMatch = Arrays.copyOf(prefix, states);
+            hasSubstrings = substrings;
+            maxPrefixLength = maxPrefix;
+        }
+
+        private int match(CharSequence message) {
+            int best = NONE;
+            int state = 0;
+            int length = message.length();
+            for (int i = 0; i < length; ++i) {
+                if (!hasSubstrings && i >= maxPrefixLength) {
+                    break;
+                }
+                int c = indexOf(message.charAt(i));
+                state = c == -1 ? 0 : next[state * columns + c];
+                best = Math.min(best, substringMatch[state]);
+                if (depth[state] == i + 1) {
+                    //no failure since the start of the message
+                    best = Math.min(best, prefixMatch[state]);
+                }
+                if (best == 0) {
+                    break;
+                }
+            }
+            return best;
+        }
+
+        private int indexOf(char c) {
+            if (c < 128) {
+                return asciiIndex[c];
+            }
+            int index = Arrays.binarySearch(alphabet, c);
+            return index < 0 ? -1 : index;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eu.cloudtm.analyzer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of ints kept in direct buffers, used to keep the order of the {@link OffHeapStore}'s records (for example,
+ * the order in which the transactions finished) and to sort them. The first buffer grows with the list, up to the
+ * segment size, so a small list only uses a small buffer.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class OffHeapIntList {
+
+    private static final int SEGMENT_INTS = 4 * 1024 * 1024;
+    private static final int DEFAULT_CAPACITY = 256;
+    private final List<ByteBuffer> segments;
+    private final int initialCapacity;
+    private int size;
+
+    public OffHeapIntList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the number of ints of the first buffer
+     */
+    public OffHeapIntList(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive");
+        }
+        this.segments = new ArrayList<ByteBuffer>();
+        this.initialCapacity = Math.min(initialCapacity, SEGMENT_INTS);
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final void clear() {
+        size = 0;
+    }
+
+    public final void add(int value) {
+        if (size == Integer.MAX_VALUE) {
+            throw new IllegalStateException("List is full");
+        }
+        if (size / SEGMENT_INTS == segments.size()) {
+            segments.add(OffHeapStore.allocate((segments.isEmpty() ? initialCapacity : SEGMENT_INTS) * 4));
+        } else if (size < SEGMENT_INTS && size * 4 == segments.get(0).capacity()) {
+            growFirstSegment();
+        }
+        set(size++, value);
+    }
+
+    public final int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return segments.get(index / SEGMENT_INTS).getInt((index % SEGMENT_INTS) * 4);
+    }
+
+    /**
+     * Sorts the list. The sort is stable: equal values keep their order.
+     */
+    public final void sort(Comparator comparator) {
+        OffHeapIntList from = this;
+        OffHeapIntList to = new OffHeapIntList(Math.max(1, size));
+        for (int i = 0; i < size; ++i) {
+            to.add(0);
+        }
+        //bottom-up merge sort, alternating between this list and the auxiliary list
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int left = low, right = middle;
+                for (int i = low; i < high; ++i) {
+                    if (left < middle && (right >= high || comparator.compare(from.get(left), from.get(right)) <= 0)) {
+                        to.set(i, from.get(left++));
+                    } else {
+                        to.set(i, from.get(right++));
+                    }
+                }
+            }
+            OffHeapIntList swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != this) {
+            for (int i = 0; i < size; ++i) {
+                set(i, from.get(i));
+            }
+        }
+    }
+
+    private void growFirstSegment() {
+        ByteBuffer segment = segments.get(0);
+        ByteBuffer grown = OffHeapStore.allocate(Math.min(size * 2, SEGMENT_INTS) * 4);
+        for (int i = 0; i < size; ++i) {
+            grown.putInt(i * 4, segment.getInt(i * 4));
+        }
+        segments.set(0, grown);
+    }
+
+    private void set(int index, int value) {
+        segments.get(index / SEGMENT_INTS).putInt((index % SEGMENT_INTS) * 4, value);
+    }
+
+    public static interface Comparator {
+        int compare(int value1, int value2);
+    }
+}
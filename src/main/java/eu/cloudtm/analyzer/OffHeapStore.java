@@ -0,0 +1,415 @@
+package eu.cloudtm.analyzer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores fixed-layout records (for example, the timestamps and line numbers of a transaction) in direct buffers, so
+ * that the heap used by the analyzers does not depend on the number of records.
+ * <p/>
+ * A record is identified by its index and its fields are read and written by offset ({@link #getLong(int, int)},
+ * {@link #putInt(int, int, int)}, ...). A record may have a key, which is kept off-heap too and is indexed by an
+ * open-addressing hash table. The index of a removed record is reused by the next one added.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class OffHeapStore {
+
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int SEGMENT_BITS = 24;
+    //header: key reference (long), key length or next free record (int) and key hash (int)
+    private static final int HEADER_SIZE = 16;
+    private static final long NO_KEY = -1;
+    private static final long FREE = -2;
+    private static final int INITIAL_TABLE_SIZE = 1024;
+    private final int recordSize;
+    private final int stride;
+    private final int recordsPerSegment;
+    private final List<ByteBuffer> recordSegments;
+    private final List<ByteBuffer> keySegments;
+    private ByteBuffer table;
+    private int mask;
+    private int keys;
+    private int size;
+    private int highWater;
+    private int freeRecord;
+    private long keyPosition;
+    private long keyGarbage;
+
+    /**
+     * @param recordSize the size of each record, in bytes
+     */
+    public OffHeapStore(int recordSize) {
+        if (recordSize <= 0 || recordSize > SEGMENT_SIZE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid record size " + recordSize);
+        }
+        this.recordSize = recordSize;
+        this.stride = (HEADER_SIZE + recordSize + 7) & ~7;
+        this.recordsPerSegment = SEGMENT_SIZE / stride;
+        this.recordSegments = new ArrayList<ByteBuffer>();
+        this.keySegments = new ArrayList<ByteBuffer>();
+        this.table = allocate(INITIAL_TABLE_SIZE * 4);
+        this.mask = INITIAL_TABLE_SIZE - 1;
+        this.freeRecord = -1;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public final int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the records. The memory is kept for the new records.
+     */
+    public final void clear() {
+        for (int i = 0; i <= mask; ++i) {
+            table.putInt(i * 4, 0);
+        }
+        keys = size = highWater = 0;
+        freeRecord = -1;
+        keyPosition = keyGarbage = 0;
+    }
+
+    /**
+     * @return a new record, without key and with all the fields set to zero
+     */
+    public final int add() {
+        int record = allocateRecord();
+        ByteBuffer segment = segment(record);
+        int position = position(record);
+        segment.putLong(position, NO_KEY);
+        segment.putInt(position + 8, 0);
+        segment.putInt(position + 12, 0);
+        return record;
+    }
+
+    /**
+     * @return a new record with the {@code key} and with all the fields set to zero
+     * @throws IllegalStateException if a record with the {@code key} already exists
+     */
+    public final int add(CharSequence key) {
+        return add(key, 0, key.length());
+    }
+
+    /**
+     * @return a new record with the chars of {@code sequence} between {@code start} (inclusive) and {@code end}
+     *         (exclusive) as key
+     * @see #add(CharSequence)
+     */
+    public final int add(CharSequence sequence, int start, int end) {
+        int hash = hash(sequence, start, end);
+        int slot = hash & mask;
+        for (int value = table.getInt(slot * 4); value != 0; value = table.getInt(slot * 4)) {
+            if (keyHash(value - 1) == hash && keyEquals(value - 1, sequence, start, end)) {
+                throw new IllegalStateException("Key " + sequence.subSequence(start, end) + " already exists");
+            }
+            slot = (slot + 1) & mask;
+        }
+        //the key is written before the record is allocated, since it may compact the keys
+        long keyReference = writeKey(sequence, start, end);
+        int record = allocateRecord();
+        ByteBuffer segment = segment(record);
+        int position = position(record);
+        segment.putLong(position, keyReference);
+        segment.putInt(position + 8, end - start);
+        segment.putInt(position + 12, hash);
+        table.putInt(slot * 4, record + 1);
+        if (++keys * 2 > mask + 1) {
+            resize();
+        }
+        return record;
+    }
+
+    /**
+     * @return the record with the {@code key} or -1 if it does not exist
+     */
+    public final int get(CharSequence key) {
+        return get(key, 0, key.length());
+    }
+
+    /**
+     * Nothing is allocated to look up the key.
+     *
+     * @return the record with the chars of {@code sequence} between {@code start} (inclusive) and {@code end}
+     *         (exclusive) as key, or -1 if it does not exist
+     */
+    public final int get(CharSequence sequence, int start, int end) {
+        int hash = hash(sequence, start, end);
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int value = table.getInt(slot * 4);
+            if (value == 0) {
+                return -1;
+            } else if (keyHash(value - 1) == hash && keyEquals(value - 1, sequence, start, end)) {
+                return value - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the key of the {@code record} or {@code null} if it has no key
+     */
+    public final String key(int record) {
+        ByteBuffer segment = segment(record);
+        int position = position(record);
+        long keyReference = segment.getLong(position);
+        if (keyReference < 0) {
+            return null;
+        }
+        int length = segment.getInt(position + 8);
+        ByteBuffer keySegment = keySegments.get((int) (keyReference >>> SEGMENT_BITS));
+        int keyStart = (int) (keyReference & (SEGMENT_SIZE - 1));
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = keySegment.getChar(keyStart + i * 2);
+        }
+        return new String(chars);
+    }
+
+    public final void remove(int record) {
+        ByteBuffer segment = segment(record);
+        int position = position(record);
+        long keyReference = segment.getLong(position);
+        if (keyReference == FREE) {
+            throw new IllegalStateException("Record " + record + " does not exist");
+        }
+        if (keyReference != NO_KEY) {
+            removeFromTable(record, segment.getInt(position + 12));
+            keyGarbage += segment.getInt(position + 8) * 2;
+            keys--;
+        }
+        segment.putLong(position, FREE);
+        segment.putInt(position + 8, freeRecord);
+        freeRecord = record;
+        size--;
+    }
+
+    /**
+     * Iterates over the records: {@code for (int r = store.next(-1); r != -1; r = store.next(r))}.
+     *
+     * @return the first record after {@code record} or -1 if there is none
+     */
+    public final int next(int record) {
+        for (int i = record + 1; i < highWater; ++i) {
+            if (segment(i).getLong(position(i)) != FREE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies a record (and its key) from another store with the same record size.
+     *
+     * @return the new record
+     */
+    public final int copy(OffHeapStore store, int record) {
+        if (store.recordSize != recordSize) {
+            throw new IllegalArgumentException("Different record size");
+        }
+        String key = store.key(record);
+        int newRecord = key == null ? add() : add(key);
+        ByteBuffer from = store.segment(record);
+        ByteBuffer to = segment(newRecord);
+        int fromPosition = store.position(record) + HEADER_SIZE;
+        int toPosition = position(newRecord) + HEADER_SIZE;
+        for (int i = 0; i < recordSize; ++i) {
+            to.put(toPosition + i, from.get(fromPosition + i));
+        }
+        return newRecord;
+    }
+
+    public final long getLong(int record, int offset) {
+        return segment(record).getLong(position(record) + HEADER_SIZE + offset);
+    }
+
+    public final void putLong(int record, int offset, long value) {
+        segment(record).putLong(position(record) + HEADER_SIZE + offset, value);
+    }
+
+    public final int getInt(int record, int offset) {
+        return segment(record).getInt(position(record) + HEADER_SIZE + offset);
+    }
+
+    public final void putInt(int record, int offset, int value) {
+        segment(record).putInt(position(record) + HEADER_SIZE + offset, value);
+    }
+
+    static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    private static int hash(CharSequence sequence, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + sequence.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private ByteBuffer segment(int record) {
+        return recordSegments.get(record / recordsPerSegment);
+    }
+
+    private int position(int record) {
+        return (record % recordsPerSegment) * stride;
+    }
+
+    private int keyHash(int record) {
+        return segment(record).getInt(position(record) + 12);
+    }
+
+    private boolean keyEquals(int record, CharSequence sequence, int start, int end) {
+        ByteBuffer segment = segment(record);
+        int position = position(record);
+        int length = segment.getInt(position + 8);
+        if (length != end - start) {
+            return false;
+        }
+        long keyReference = segment.getLong(position);
+        ByteBuffer keySegment = keySegments.get((int) (keyReference >>> SEGMENT_BITS));
+        int keyStart = (int) (keyReference & (SEGMENT_SIZE - 1));
+        for (int i = 0; i < length; ++i) {
+            if (keySegment.getChar(keyStart + i * 2) != sequence.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int allocateRecord() {
+        int record;
+        if (freeRecord != -1) {
+            record = freeRecord;
+            freeRecord = segment(record).getInt(position(record) + 8);
+        } else {
+            if (highWater == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many records");
+            }
+            record = highWater++;
+            if (record / recordsPerSegment == recordSegments.size()) {
+                recordSegments.add(allocate(SEGMENT_SIZE));
+            }
+        }
+        ByteBuffer segment = segment(record);
+        int position = position(record) + HEADER_SIZE;
+        for (int i = 0; i < recordSize; ++i) {
+            segment.put(position + i, (byte) 0);
+        }
+        size++;
+        return record;
+    }
+
+    /**
+     * @return the reference (segment and position) of the key
+     */
+    private long writeKey(CharSequence sequence, int start, int end) {
+        int bytes = (end - start) * 2;
+        if (bytes > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Key too long: " + (end - start) + " chars");
+        }
+        if ((keyPosition & (SEGMENT_SIZE - 1)) + bytes > SEGMENT_SIZE) {
+            //the keys of the removed records are discarded when they are, at least, half of the keys' memory
+            if (keyGarbage * 2 >= keyPosition) {
+                compactKeys();
+            }
+            if ((keyPosition & (SEGMENT_SIZE - 1)) + bytes > SEGMENT_SIZE) {
+                keyPosition = ((keyPosition >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+            }
+        }
+        int segmentIndex = (int) (keyPosition >>> SEGMENT_BITS);
+        if (segmentIndex == keySegments.size()) {
+            keySegments.add(allocate(SEGMENT_SIZE));
+        }
+        ByteBuffer segment = keySegments.get(segmentIndex);
+        int keyStart = (int) (keyPosition & (SEGMENT_SIZE - 1));
+        for (int i = start; i < end; ++i) {
+            segment.putChar(keyStart + (i - start) * 2, sequence.charAt(i));
+        }
+        long reference = keyPosition;
+        keyPosition += bytes;
+        return reference;
+    }
+
+    private void compactKeys() {
+        List<ByteBuffer> newSegments = new ArrayList<ByteBuffer>();
+        long position = 0;
+        for (int record = next(-1); record != -1; record = next(record)) {
+            ByteBuffer segment = segment(record);
+            int recordPosition = position(record);
+            long keyReference = segment.getLong(recordPosition);
+            if (keyReference < 0) {
+                continue;
+            }
+            int bytes = segment.getInt(recordPosition + 8) * 2;
+            if ((position & (SEGMENT_SIZE - 1)) + bytes > SEGMENT_SIZE) {
+                position = ((position >>> SEGMENT_BITS) + 1) << SEGMENT_BITS;
+            }
+            if ((position >>> SEGMENT_BITS) == newSegments.size()) {
+                newSegments.add(allocate(SEGMENT_SIZE));
+            }
+            ByteBuffer from = keySegments.get((int) (keyReference >>> SEGMENT_BITS));
+            int fromStart = (int) (keyReference & (SEGMENT_SIZE - 1));
+            ByteBuffer to = newSegments.get((int) (position >>> SEGMENT_BITS));
+            int toStart = (int) (position & (SEGMENT_SIZE - 1));
+            for (int i = 0; i < bytes; ++i) {
+                to.put(toStart + i, from.get(fromStart + i));
+            }
+            segment.putLong(recordPosition, position);
+            position += bytes;
+        }
+        keySegments.clear();
+        keySegments.addAll(newSegments);
+        keyPosition = position;
+        keyGarbage = 0;
+    }
+
+    private void removeFromTable(int record, int hash) {
+        int slot = hash & mask;
+        while (table.getInt(slot * 4) != record + 1) {
+            slot = (slot + 1) & mask;
+        }
+        //backward shift deletion: the following entries are moved to keep the probe sequences without holes
+        int next = slot;
+        while (true) {
+            table.putInt(slot * 4, 0);
+            int value;
+            do {
+                next = (next + 1) & mask;
+                value = table.getInt(next * 4);
+                if (value == 0) {
+                    return;
+                }
+            } while (((next - (keyHash(value - 1) & mask)) & mask) < ((next - slot) & mask));
+            table.putInt(slot * 4, value);
+            slot = next;
+        }
+    }
+
+    private void resize() {
+        int capacity = (mask + 1) * 2;
+        if (capacity > (1 << 29)) {
+            throw new IllegalStateException("Too many keys");
+        }
+        ByteBuffer oldTable = table;
+        int oldCapacity = mask + 1;
+        table = allocate(capacity * 4);
+        mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; ++i) {
+            int value = oldTable.getInt(i * 4);
+            if (value != 0) {
+                int slot = keyHash(value - 1) & mask;
+                while (table.getInt(slot * 4) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table.putInt(slot * 4, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package eu.cloudtm.analyzer;
+
+import eu.cloudtm.LogEntry;
+
+/**
+ * An analyzer whose state is partitioned by a key extracted from each entry (for example, the transaction or the
+ * thread), such that the entries with different keys can be analyzed independently. {@link ShardedAnalyzer} uses it
+ * to analyze the log in multiple threads, each one with its own shard of the state.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public interface PartitionedAnalyzer<T extends PartitionedAnalyzer<T>> extends Analyzer {
+
+    /**
+     * @return the partition key of the entry, or {@code null} if the entry is ignored. The entries with the same key
+     *         are analyzed by the same shard, in the log order.
+     */
+    Object partitionKey(LogEntry logEntry);
+
+    /**
+     * @return a new analyzer, with empty state, that analyzes a single shard
+     */
+    T newShard();
+
+    /**
+     * Adds the state of the {@code shard} to this analyzer. It is invoked after all the entries are analyzed, for each
+     * shard, and before {@link #after()}.
+     */
+    void merge(T shard);
+}
@@ -0,0 +1,192 @@
+package eu.cloudtm.analyzer;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Analyzes the entries of a {@link PartitionedAnalyzer} in multiple threads. The entries are hash partitioned by
+ * their key and each thread owns a shard of the analyzer, so the state is not shared and no locking is needed. The
+ * entries with the same key are analyzed in the log order.
+ * <p/>
+ * The shards are merged into the original analyzer (in the shards' order) before its {@link Analyzer#after()}.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class ShardedAnalyzer<T extends PartitionedAnalyzer<T>> implements Analyzer {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+    private static final List<LogEntry> END = Collections.emptyList();
+    private final T analyzer;
+    private final int partitions;
+    private final int batchSize;
+    private final List<T> shards;
+    private final List<BlockingQueue<List<LogEntry>>> queues;
+    private final List<List<LogEntry>> batches;
+    private final List<Thread> workers;
+    private volatile Throwable failure;
+    private boolean failureReported;
+
+    public ShardedAnalyzer(T analyzer, int partitions) {
+        this(analyzer, partitions, DEFAULT_BATCH_SIZE);
+    }
+
+    public ShardedAnalyzer(T analyzer, int partitions, int batchSize) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.analyzer = analyzer;
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.shards = new ArrayList<T>(partitions);
+        this.queues = new ArrayList<BlockingQueue<List<LogEntry>>>(partitions);
+        this.batches = new ArrayList<List<LogEntry>>(partitions);
+        this.workers = new ArrayList<Thread>(partitions);
+    }
+
+    /**
+     * @return a {@link ShardedAnalyzer} running the {@code analyzer} if it is a {@link PartitionedAnalyzer} and more
+     *         than one partition is requested, otherwise the {@code analyzer} itself
+     */
+    public static Analyzer partition(Analyzer analyzer, int partitions, int batchSize) {
+        if (partitions <= 1 || !(analyzer instanceof PartitionedAnalyzer)) {
+            return analyzer;
+        }
+        return shard((PartitionedAnalyzer<?>) analyzer, partitions, batchSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends PartitionedAnalyzer<T>> Analyzer shard(PartitionedAnalyzer<T> analyzer, int partitions,
+                                                                     int batchSize) {
+        //an analyzer of type PartitionedAnalyzer<T> is a T
+        return new ShardedAnalyzer<T>((T) analyzer, partitions, batchSize);
+    }
+
+    @Override
+    public void before() {
+        analyzer.before();
+        failure = null;
+        failureReported = false;
+        shards.clear();
+        queues.clear();
+        batches.clear();
+        workers.clear();
+        for (int i = 0; i < partitions; ++i) {
+            final T shard = analyzer.newShard();
+            final BlockingQueue<List<LogEntry>> queue = new ArrayBlockingQueue<List<LogEntry>>(DEFAULT_QUEUE_SIZE);
+            shard.before();
+            shards.add(shard);
+            queues.add(queue);
+            batches.add(new ArrayList<LogEntry>(batchSize));
+            Thread worker = new Thread("shard-" + i + "-" + analyzer.getClass().getSimpleName()) {
+                @Override
+                public void run() {
+                    analyzeShard(shard, queue);
+                }
+            };
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Waits for all the shards and merges them. The report is produced even if a shard failed.
+     */
+    @Override
+    public void after() {
+        try {
+            for (int i = 0; i < partitions; ++i) {
+                flush(i);
+                queues.get(i).put(END);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        }
+        if (failure != null && !failureReported) {
+            failure.printStackTrace();
+        }
+        for (T shard : shards) {
+            analyzer.merge(shard);
+        }
+        analyzer.after();
+    }
+
+    @Override
+    public void analyze(LogEntry logEntry) {
+        if (failure != null) {
+            failureReported = true;
+            throw new IllegalStateException("Error analyzing a shard of " + analyzer.getClass().getSimpleName(),
+                    failure);
+        }
+        Object key = analyzer.partitionKey(logEntry);
+        if (key == null) {
+            return;
+        }
+        int hash = key.hashCode();
+        //spread the high bits, like java.util.HashMap
+        int index = ((hash ^ (hash >>> 16)) & 0x7fffffff) % partitions;
+        List<LogEntry> batch = batches.get(index);
+        //the entry is handed to another thread, so it cannot be a flyweight
+        batch.add(logEntry.detach());
+        if (batch.size() == batchSize) {
+            flush(index);
+        }
+    }
+
+    @Override
+    public LogFilter filter() {
+        return analyzer.filter();
+    }
+
+    private void flush(int index) {
+        List<LogEntry> batch = batches.get(index);
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            queues.get(index).put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while analyzing", e);
+        }
+        batches.set(index, new ArrayList<LogEntry>(batchSize));
+    }
+
+    private void analyzeShard(T shard, BlockingQueue<List<LogEntry>> queue) {
+        boolean failed = false;
+        try {
+            List<LogEntry> batch;
+            while ((batch = queue.take()) != END) {
+                if (failed) {
+                    //keep draining, so the producer is never blocked
+                    continue;
+                }
+                try {
+                    for (LogEntry logEntry : batch) {
+                        shard.analyze(logEntry);
+                    }
+                } catch (Throwable throwable) {
+                    failed = true;
+                    failure = throwable;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
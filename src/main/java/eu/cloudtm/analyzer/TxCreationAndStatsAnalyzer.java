@@ -1,116 +1,273 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.output.RecordWriter;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
+import static eu.cloudtm.SymbolTable.THREADS;
 import static eu.cloudtm.Util.prettyPrintTime;
 
 /**
+ * The running transaction of each thread is kept in an array indexed by the thread id (see {@link
+ * LogEntry#threadId()}). The transactions of different threads are independent, so the log can be partitioned by
+ * thread (see {@link PartitionedAnalyzer}).
+ * <p/>
+ * The transactions are records of an {@link OffHeapStore}, so the heap used does not depend on the number of
+ * transactions. A transaction finishes when the next one begins in its thread (or in the end of the log).
+ * <p/>
+ * If the {@link #TOP_PROPERTY} is set to K, only the K slowest transactions are kept (in a min-heap) and printed, and
+ * the others are removed when they finish. The invalid transactions are only counted.
+ *
  * @author Pedro Ruivo
  * @since 2.8
  */
-public class TxCreationAndStatsAnalyzer implements Analyzer {
+public class TxCreationAndStatsAnalyzer implements PartitionedAnalyzer<TxCreationAndStatsAnalyzer>,
+        CheckpointableAnalyzer {
 
-    private final HashMap<String, Transaction> transactions;
-    private final ArrayList<Transaction> committed;
+    private static final MessageClassifier<EventType> CLASSIFIER = new MessageClassifier<EventType>();
+    //transaction record layout
+    private static final int BEGIN = 0;
+    private static final int COMMIT = 8;
+    private static final int CREATE_STATS_TIME = 16;
+    private static final int END_STATS_TIME = 24;
+    private static final int FIRST_GET = 32;
+    private static final int FIRST_PUT = 40;
+    private static final int BEGIN_LINE = 48;
+    private static final int COMMIT_LINE = 52;
+    private static final int THREAD = 56;
+    private static final int RECORD_SIZE = 64;
+    private static final String TOP_PROPERTY = "txCreation.top";
+
+    static {
+        for (EventType eventType : EventType.values()) {
+            CLASSIFIER.addPrefix(eventType.startsWith, eventType);
+        }
+    }
+
+    private final OffHeapStore store;
+    private final OffHeapIntList committed;
+    private final int top;
+    private final int[] slowest;
+    private final long[] counters;
+    //orders by duration and, with the same duration, by begin (time, line and thread), so the order does not depend on
+    //the shard that analyzed the transaction
+    private final OffHeapIntList.Comparator durationComparator = new OffHeapIntList.Comparator() {
+        @Override
+        public int compare(int transaction1, int transaction2) {
+            int result = Long.valueOf(duration(transaction1)).compareTo(duration(transaction2));
+            if (result == 0) {
+                result = Long.valueOf(store.getLong(transaction1, BEGIN)).compareTo(store.getLong(transaction2, BEGIN));
+            }
+            if (result == 0) {
+                result = Integer.valueOf(store.getInt(transaction1, BEGIN_LINE))
+                        .compareTo(store.getInt(transaction2, BEGIN_LINE));
+            }
+            if (result == 0) {
+                result = THREADS.symbol(store.getInt(transaction1, THREAD)).value()
+                        .compareTo(THREADS.symbol(store.getInt(transaction2, THREAD)).value());
+            }
+            return result;
+        }
+    };
+    private RecordWriter output;
+    private int[] transactions;
+    private int slowestSize;
 
     public TxCreationAndStatsAnalyzer() {
-        transactions = new HashMap<String, Transaction>();
-        committed = new ArrayList<Transaction>();
+        top = Integer.getInteger(TOP_PROPERTY, 0);
+        if (top < 0) {
+            throw new IllegalArgumentException(TOP_PROPERTY + " must be positive");
+        }
+        store = new OffHeapStore(RECORD_SIZE);
+        committed = new OffHeapIntList();
+        slowest = new int[top];
+        counters = new long[Counter.values().length];
+        transactions = new int[64];
+        Arrays.fill(transactions, -1);
     }
 
 
     @Override
     public void before() {
-        transactions.clear();
+        Arrays.fill(transactions, -1);
         committed.clear();
+        store.clear();
+        slowestSize = 0;
+        Arrays.fill(counters, 0);
+        output = Outputs.writer(getClass());
     }
 
     @Override
     public void after() {
-        committed.addAll(transactions.values());
-        Collections.sort(committed);
-        ArrayList<Transaction> notValid = new ArrayList<Transaction>();
-        for (Transaction transaction : committed) {
-            System.out.println(transaction);
-            if (!transaction.isValid()) {
-                notValid.add(transaction);
+        for (int transaction : transactions) {
+            if (transaction != -1) {
+                finish(transaction);
             }
         }
+        OffHeapIntList finished = finished();
+        finished.sort(durationComparator);
+        for (int i = 0; i < finished.size(); ++i) {
+            output.line(toString(finished.get(i)));
+        }
 
         System.err.println("##########################################################################");
         System.err.println("##########################################################################");
         System.err.println("############################### NOT VALID ################################");
         System.err.println("##########################################################################");
         System.err.println("##########################################################################");
-        for (Transaction transaction : notValid) {
-            System.err.println(transaction);
+        for (int i = 0; i < finished.size(); ++i) {
+            if (!isValid(finished.get(i))) {
+                System.err.println(toString(finished.get(i)));
+            }
+        }
+        if (top > 0) {
+            System.err.println("Not valid: " + counters[Counter.NOT_VALID.ordinal()] + " of " +
+                    counters[Counter.FINISHED.ordinal()] + " transactions (without commit=" +
+                    counters[Counter.WITHOUT_COMMIT.ordinal()] + ", without create stats time=" +
+                    counters[Counter.WITHOUT_CREATE_STATS_TIME.ordinal()] + ", without end stats time=" +
+                    counters[Counter.WITHOUT_END_STATS_TIME.ordinal()] + ")");
         }
         System.err.println("################################## END ###################################");
     }
 
+    @Override
+    public LogFilter filter() {
+        LogFilter filter = new LogFilter();
+        for (EventType eventType : EventType.values()) {
+            filter.messageStartsWith(eventType.startsWith);
+        }
+        return filter;
+    }
+
+    @Override
+    public Object partitionKey(LogEntry logEntry) {
+        return logEntry.thread();
+    }
+
+    @Override
+    public TxCreationAndStatsAnalyzer newShard() {
+        return new TxCreationAndStatsAnalyzer();
+    }
+
+    @Override
+    public void merge(TxCreationAndStatsAnalyzer shard) {
+        OffHeapIntList shardCommitted = shard.finished();
+        if (top > 0) {
+            shardCommitted.sort(shard.durationComparator);
+        }
+        for (int i = 0; i < shardCommitted.size(); ++i) {
+            keep(store.copy(shard.store, shardCommitted.get(i)));
+        }
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] += shard.counters[i];
+        }
+        //each thread is in a single shard, so the running transactions do not overlap
+        ensureThread(shard.transactions.length - 1);
+        for (int i = 0; i < shard.transactions.length; ++i) {
+            if (shard.transactions[i] != -1) {
+                transactions[i] = store.copy(shard.store, shard.transactions[i]);
+            }
+        }
+    }
+
+    @Override
+    public String checkpointConfiguration() {
+        return TOP_PROPERTY + "=" + top;
+    }
+
+    /**
+     * The running transactions are saved by thread name, since the thread ids are only valid in this process.
+     */
+    @Override
+    public void saveState(DataOutput output) throws IOException {
+        OffHeapIntList finished = finished();
+        if (top > 0) {
+            //keeps the order of the transactions with the same duration
+            finished.sort(durationComparator);
+        }
+        output.writeInt(finished.size());
+        for (int i = 0; i < finished.size(); ++i) {
+            save(finished.get(i), output);
+        }
+        int running = 0;
+        for (int transaction : transactions) {
+            if (transaction != -1) {
+                running++;
+            }
+        }
+        output.writeInt(running);
+        for (int transaction : transactions) {
+            if (transaction != -1) {
+                save(transaction, output);
+            }
+        }
+        for (long counter : counters) {
+            output.writeLong(counter);
+        }
+    }
+
+    @Override
+    public void restoreState(DataInput input) throws IOException {
+        before();
+        int size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+            keep(restore(input));
+        }
+        size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+            int transaction = restore(input);
+            int thread = store.getInt(transaction, THREAD);
+            ensureThread(thread);
+            transactions[thread] = transaction;
+        }
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] = input.readLong();
+        }
+    }
+
     @Override
     public void analyze(LogEntry logEntry) {
-        String thread = logEntry.thread();
-        EventType type = parse(logEntry.message());
+        int thread = logEntry.threadId();
+        EventType type = CLASSIFIER.classify(logEntry.firstLine());
         if (type == null) {
             return; //ignored
         }
+        ensureThread(thread);
+        if (type == EventType.BEGIN) {
+            if (transactions[thread] != -1) {
+                finish(transactions[thread]);
+            }
+            int newTx = newTransaction(thread);
+            setBegin(newTx, logEntry);
+            transactions[thread] = newTx;
+            return;
+        }
+        int tx = transactions[thread];
+        if (tx == -1) {
+            System.err.println("tx does not exist: " + logEntry);
+            return;
+        }
         switch (type) {
-            case BEGIN:
-                if (transactions.containsKey(thread)) {
-                    Transaction old = transactions.remove(thread);
-                    committed.add(old);
-                }
-                Transaction newTx = new Transaction(thread);
-                newTx.setBegin(logEntry);
-                transactions.put(thread, newTx);
-                break;
             case COMMIT:
-                Transaction tx = transactions.get(thread);
-                if (tx == null) {
-                    System.err.println("tx does not exist: " + logEntry);
-                    break;
-                }
-                tx.setCommit(logEntry);
+                setCommit(tx, logEntry);
                 break;
             case GET:
-                tx = transactions.get(thread);
-                if (tx == null) {
-                    System.err.println("tx does not exist: " + logEntry);
-                    break;
-                }
-                tx.setFirstGet(logEntry);
+                setFirstGet(tx, logEntry);
                 break;
             case PUT:
-                tx = transactions.get(thread);
-                if (tx == null) {
-                    System.err.println("tx does not exist: " + logEntry);
-                    break;
-                }
-                tx.setFirstPut(logEntry);
+                setFirstPut(tx, logEntry);
                 break;
             case CREATE_STAT:
-                tx = transactions.get(thread);
-                if (tx == null) {
-                    System.err.println("tx does not exist: " + logEntry);
-                    break;
-                }
-                tx.setCreateStatsTime(logEntry);
+                setCreateStatsTime(tx, logEntry);
                 break;
             case END_STAT:
-                tx = transactions.get(thread);
-                if (tx == null) {
-                    System.err.println("tx does not exist: " + logEntry);
-                    break;
-                }
-                tx.setEndStatsTime(logEntry);
+                setEndStatsTime(tx, logEntry);
                 break;
             default:
                 System.err.print("unknonw " + type);
@@ -118,122 +275,202 @@ public class TxCreationAndStatsAnalyzer implements Analyzer {
         }
     }
 
-    private EventType parse(String message) {
-        for (EventType eventType : EventType.values()) {
-            if (eventType.matches(message)) {
-                return eventType;
+    /**
+     * Counts the transaction and keeps it, if it is one of the slowest (or always, if all the transactions are
+     * printed).
+     */
+    private void finish(int transaction) {
+        counters[Counter.FINISHED.ordinal()]++;
+        if (!isValid(transaction)) {
+            counters[Counter.NOT_VALID.ordinal()]++;
+            if (store.getLong(transaction, COMMIT) == -1) {
+                counters[Counter.WITHOUT_COMMIT.ordinal()]++;
+            }
+            if (store.getLong(transaction, CREATE_STATS_TIME) == -1) {
+                counters[Counter.WITHOUT_CREATE_STATS_TIME.ordinal()]++;
+            }
+            if (store.getLong(transaction, END_STATS_TIME) == -1) {
+                counters[Counter.WITHOUT_END_STATS_TIME.ordinal()]++;
             }
         }
-        return null;
+        keep(transaction);
     }
 
-    private static enum EventType {
-        BEGIN("Begin transaction"),
-        COMMIT("Commit transaction"),
-        GET("Invoked with command GetKeyValueCommand"),
-        PUT("Invoked with command PutKeyValueCommand"),
-        CREATE_STAT("Created transaction statistics"),
-        END_STAT("Terminating transaction");
-        private final String startsWith;
+    private void keep(int transaction) {
+        if (top == 0) {
+            committed.add(transaction);
+        } else if (slowestSize < top) {
+            //sift up
+            int index = slowestSize++;
+            while (index > 0 && durationComparator.compare(transaction, slowest[(index - 1) / 2]) < 0) {
+                slowest[index] = slowest[(index - 1) / 2];
+                index = (index - 1) / 2;
+            }
+            slowest[index] = transaction;
+        } else if (durationComparator.compare(transaction, slowest[0]) > 0) {
+            store.remove(slowest[0]);
+            //sift down
+            int index = 0;
+            while (2 * index + 1 < slowestSize) {
+                int child = 2 * index + 1;
+                if (child + 1 < slowestSize && durationComparator.compare(slowest[child + 1], slowest[child]) < 0) {
+                    child++;
+                }
+                if (durationComparator.compare(slowest[child], transaction) >= 0) {
+                    break;
+                }
+                slowest[index] = slowest[child];
+                index = child;
+            }
+            slowest[index] = transaction;
+        } else {
+            store.remove(transaction);
+        }
+    }
 
-        private EventType(String startsWith) {
-            this.startsWith = startsWith;
+    /**
+     * @return the finished transactions kept
+     */
+    private OffHeapIntList finished() {
+        if (top == 0) {
+            return committed;
+        }
+        OffHeapIntList list = new OffHeapIntList(Math.max(1, slowestSize));
+        for (int i = 0; i < slowestSize; ++i) {
+            list.add(slowest[i]);
         }
+        return list;
+    }
 
-        public final boolean matches(String message) {
-            return message.startsWith(startsWith);
+    private void ensureThread(int thread) {
+        if (thread >= transactions.length) {
+            int oldLength = transactions.length;
+            transactions = Arrays.copyOf(transactions, Math.max(thread + 1, transactions.length * 2));
+            Arrays.fill(transactions, oldLength, transactions.length, -1);
         }
     }
 
-    private class Transaction implements Comparable<Transaction> {
-        private final String thread;
-        private int beginLine;
-        private long begin;
-        private int commitLine;
-        private long commit;
-        private long createStatsTime;
-        private long endStatsTime;
-        private long firstGet;
-        private long firstPut;
+    private int newTransaction(int thread) {
+        int transaction = store.add();
+        store.putLong(transaction, BEGIN, -1);
+        store.putLong(transaction, COMMIT, -1);
+        store.putLong(transaction, CREATE_STATS_TIME, -1);
+        store.putLong(transaction, END_STATS_TIME, -1);
+        store.putLong(transaction, FIRST_GET, -1);
+        store.putLong(transaction, FIRST_PUT, -1);
+        store.putInt(transaction, THREAD, thread);
+        return transaction;
+    }
 
-        public Transaction(String thread) {
-            this.thread = thread;
-            begin = commit = createStatsTime = endStatsTime = firstGet = firstPut = -1;
-        }
+    private void save(int transaction, DataOutput output) throws IOException {
+        output.writeUTF(THREADS.symbol(store.getInt(transaction, THREAD)).value());
+        output.writeInt(store.getInt(transaction, BEGIN_LINE));
+        output.writeLong(store.getLong(transaction, BEGIN));
+        output.writeInt(store.getInt(transaction, COMMIT_LINE));
+        output.writeLong(store.getLong(transaction, COMMIT));
+        output.writeLong(store.getLong(transaction, CREATE_STATS_TIME));
+        output.writeLong(store.getLong(transaction, END_STATS_TIME));
+        output.writeLong(store.getLong(transaction, FIRST_GET));
+        output.writeLong(store.getLong(transaction, FIRST_PUT));
+    }
 
-        private void setBegin(LogEntry logEntry) {
-            if (this.begin != -1) {
-                System.err.println("duplicated begin! " + logEntry);
-                return;
-            }
-            this.begin = logEntry.time();
-            this.beginLine = logEntry.lineNumber();
-        }
+    private int restore(DataInput input) throws IOException {
+        int transaction = newTransaction(THREADS.intern(input.readUTF()).id());
+        store.putInt(transaction, BEGIN_LINE, input.readInt());
+        store.putLong(transaction, BEGIN, input.readLong());
+        store.putInt(transaction, COMMIT_LINE, input.readInt());
+        store.putLong(transaction, COMMIT, input.readLong());
+        store.putLong(transaction, CREATE_STATS_TIME, input.readLong());
+        store.putLong(transaction, END_STATS_TIME, input.readLong());
+        store.putLong(transaction, FIRST_GET, input.readLong());
+        store.putLong(transaction, FIRST_PUT, input.readLong());
+        return transaction;
+    }
 
-        private void setCommit(LogEntry logEntry) {
-            if (this.commit != -1) {
-                System.err.println("duplicated commit! " + logEntry);
-                return;
-            }
-            this.commit = logEntry.time();
-            this.commitLine = logEntry.lineNumber();
+    private void setBegin(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, BEGIN) != -1) {
+            System.err.println("duplicated begin! " + logEntry);
+            return;
         }
+        store.putLong(transaction, BEGIN, logEntry.time());
+        store.putInt(transaction, BEGIN_LINE, logEntry.lineNumber());
+    }
 
-        private void setCreateStatsTime(LogEntry logEntry) {
-            if (this.createStatsTime != -1) {
-                System.err.println("duplicated create stat time! " + logEntry);
-                return;
-            }
-            this.createStatsTime = logEntry.time();
+    private void setCommit(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, COMMIT) != -1) {
+            System.err.println("duplicated commit! " + logEntry);
+            return;
         }
+        store.putLong(transaction, COMMIT, logEntry.time());
+        store.putInt(transaction, COMMIT_LINE, logEntry.lineNumber());
+    }
 
-        private void setEndStatsTime(LogEntry logEntry) {
-            if (this.endStatsTime != -1) {
-                System.out.println("duplicated end stat time! " + logEntry);
-                return;
-            }
-            this.endStatsTime = logEntry.time();
+    private void setCreateStatsTime(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, CREATE_STATS_TIME) != -1) {
+            System.err.println("duplicated create stat time! " + logEntry);
+            return;
         }
+        store.putLong(transaction, CREATE_STATS_TIME, logEntry.time());
+    }
 
-        private void setFirstGet(LogEntry logEntry) {
-            if (this.firstGet != -1) {
-                return;
-            }
-            this.firstGet = logEntry.time();
+    private void setEndStatsTime(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, END_STATS_TIME) != -1) {
+            output.line("duplicated end stat time! " + logEntry);
+            return;
         }
+        store.putLong(transaction, END_STATS_TIME, logEntry.time());
+    }
 
-        private void setFirstPut(LogEntry logEntry) {
-            if (this.firstPut != -1) {
-                return;
-            }
-            this.firstPut = logEntry.time();
+    private void setFirstGet(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, FIRST_GET) == -1) {
+            store.putLong(transaction, FIRST_GET, logEntry.time());
         }
+    }
 
-        @Override
-        public String toString() {
-            return "Transaction{" +
-                    "thread=" + thread +
-                    ", begin=" + prettyPrintTime(begin) + "@" + beginLine +
-                    ", commit=" + prettyPrintTime(commit) + "@" + commitLine +
-                    ", createStatsTime=" + prettyPrintTime(createStatsTime) +
-                    ", endStatsTime=" + prettyPrintTime(endStatsTime) +
-                    ", firstGet=" + prettyPrintTime(firstGet) +
-                    ", firstPut=" + prettyPrintTime(firstPut) +
-                    '}';
+    private void setFirstPut(int transaction, LogEntry logEntry) {
+        if (store.getLong(transaction, FIRST_PUT) == -1) {
+            store.putLong(transaction, FIRST_PUT, logEntry.time());
         }
+    }
 
-        @Override
-        public int compareTo(Transaction o) {
-            if (o == null) {
-                return -1;
-            }
-            Long thisDuration = commit - begin;
-            Long otherDuration = o.commit - o.begin;
-            return thisDuration.compareTo(otherDuration);
-        }
+    private long duration(int transaction) {
+        return store.getLong(transaction, COMMIT) - store.getLong(transaction, BEGIN);
+    }
+
+    private boolean isValid(int transaction) {
+        return store.getLong(transaction, BEGIN) != -1 && store.getLong(transaction, COMMIT) != -1 &&
+                store.getLong(transaction, CREATE_STATS_TIME) != -1 && store.getLong(transaction, END_STATS_TIME) != -1;
+    }
+
+    private String toString(int transaction) {
+        return "Transaction{" +
+                "thread=" + THREADS.symbol(store.getInt(transaction, THREAD)).value() +
+                ", begin=" + prettyPrintTime(store.getLong(transaction, BEGIN)) + "@" +
+                store.getInt(transaction, BEGIN_LINE) +
+                ", commit=" + prettyPrintTime(store.getLong(transaction, COMMIT)) + "@" +
+                store.getInt(transaction, COMMIT_LINE) +
+                ", createStatsTime=" + prettyPrintTime(store.getLong(transaction, CREATE_STATS_TIME)) +
+                ", endStatsTime=" + prettyPrintTime(store.getLong(transaction, END_STATS_TIME)) +
+                ", firstGet=" + prettyPrintTime(store.getLong(transaction, FIRST_GET)) +
+                ", firstPut=" + prettyPrintTime(store.getLong(transaction, FIRST_PUT)) +
+                '}';
+    }
+
+    private static enum Counter {
+        FINISHED, NOT_VALID, WITHOUT_COMMIT, WITHOUT_CREATE_STATS_TIME, WITHOUT_END_STATS_TIME
+    }
+
+    private static enum EventType {
+        BEGIN("Begin transaction"),
+        COMMIT("Commit transaction"),
+        GET("Invoked with command GetKeyValueCommand"),
+        PUT("Invoked with command PutKeyValueCommand"),
+        CREATE_STAT("Created transaction statistics"),
+        END_STAT("Terminating transaction");
+        private final String startsWith;
 
-        public final boolean isValid() {
-            return begin != -1 && commit != -1 && createStatsTime != -1 && endStatsTime != -1;
+        private EventType(String startsWith) {
+            this.startsWith = startsWith;
         }
     }
 }
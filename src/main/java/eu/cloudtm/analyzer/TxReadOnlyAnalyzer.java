@@ -1,6 +1,9 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.output.RecordWriter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -17,26 +20,33 @@ import static eu.cloudtm.Util.prettyPrintTime;
  */
 public class TxReadOnlyAnalyzer implements Analyzer {
 
+    private RecordWriter output;
 
     public TxReadOnlyAnalyzer() {
     }
 
     @Override
     public void before() {
-        System.out.println("timestamp(ms),timestamp(date),duration(nanoseconds)");
+        output = Outputs.writer(getClass());
+        output.header("timestamp(ms)", "timestamp(date)", "duration(nanoseconds)");
     }
 
     @Override
     public void after() {
     }
 
+    @Override
+    public LogFilter filter() {
+        return new LogFilter().messageStartsWith("Add");
+    }
+
     @Override
     public void analyze(LogEntry logEntry) {
         String message = logEntry.message();
         if (message.startsWith("Add") && message.endsWith("RO_TX_SUCCESSFUL_EXECUTION_TIME")) {
             String[] split = message.split(" ");
             double duration = Double.parseDouble(split[1]);
-            System.out.println(logEntry.time() + "," + prettyPrintTime(logEntry.time()) + "," + duration);
+            output.field(logEntry.time()).field(prettyPrintTime(logEntry.time())).field(duration).endRecord();
         }
         //RO_TX_SUCCESSFUL_EXECUTION_TIME
     }
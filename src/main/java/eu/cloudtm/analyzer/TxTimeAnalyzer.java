@@ -1,31 +1,76 @@
 package eu.cloudtm.analyzer;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.output.Outputs;
+import eu.cloudtm.output.RecordWriter;
 
-import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 import static eu.cloudtm.Util.prettyPrintNumber;
 import static eu.cloudtm.Util.prettyPrintTime;
 
 /**
+ * The statistics durations are records of an {@link OffHeapStore}, keyed by the statistics id, so the heap used does
+ * not depend on the number of ids.
+ * <p/>
+ * By default, each duration is recorded in a {@link LatencyHistogram} when the statistics end and only the summary
+ * (count, minimum, mean, maximum and percentiles) is printed. The ended records are kept, with their end time, to
+ * report the ids that end twice or start again. If the {@link #LISTING_PROPERTY} is {@code true}, all the durations
+ * are printed, sorted.
+ *
  * @author Pedro Ruivo
  * @since 1.0
  */
-public class TxTimeAnalyzer implements Analyzer {
-
-    private final Map<String, StatsDuration> statsDurations = new HashMap<String, StatsDuration>();
+public class TxTimeAnalyzer implements CheckpointableAnalyzer {
+
+    //statistics duration record layout
+    private static final int START_TIME = 0;
+    private static final int END_TIME = 8;
+    private static final int RECORD_SIZE = 16;
+    private static final String LISTING_PROPERTY = "txTime.listing";
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private final OffHeapStore statsDurations = new OffHeapStore(RECORD_SIZE);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final boolean listing;
+
+    public TxTimeAnalyzer() {
+        listing = Boolean.getBoolean(LISTING_PROPERTY);
+    }
 
     @Override
     public void before() {
         statsDurations.clear();
+        histogram.clear();
     }
 
     @Override
     public void after() {
-        List<StatsDuration> statsDurationList = new ArrayList<StatsDuration>(statsDurations.values());
-        Collections.sort(statsDurationList);
-        for (StatsDuration statsDuration : statsDurationList) {
-            System.out.println(statsDuration);
+        if (!listing) {
+            printSummary();
+            return;
+        }
+        OffHeapIntList statsDurationList = new OffHeapIntList();
+        for (int record = statsDurations.next(-1); record != -1; record = statsDurations.next(record)) {
+            statsDurationList.add(record);
+        }
+        statsDurationList.sort(new OffHeapIntList.Comparator() {
+            @Override
+            public int compare(int statsDuration1, int statsDuration2) {
+                long duration1 = duration(statsDuration1);
+                long duration2 = duration(statsDuration2);
+                if (duration1 == -1) {
+                    return 1;
+                } else if (duration2 == -1) {
+                    return -1;
+                }
+                return Long.valueOf(duration1).compareTo(duration2);
+            }
+        });
+        RecordWriter output = Outputs.writer(getClass());
+        for (int i = 0; i < statsDurationList.size(); ++i) {
+            output.line(toString(statsDurationList.get(i)));
         }
     }
 
@@ -39,17 +84,52 @@ public class TxTimeAnalyzer implements Analyzer {
         boolean isBegin = isStarting(message);
         String id = getId(message);
 
+        int statsDuration = statsDurations.get(id);
         if (isBegin) {
-            if (statsDurations.put(id, new StatsDuration(id, time)) != null) {
+            if (statsDuration != -1) {
                 System.err.println("Error for id [" + id + "]. This id has started twice");
+            } else {
+                statsDuration = statsDurations.add(id);
             }
+            statsDurations.putLong(statsDuration, START_TIME, time);
+            statsDurations.putLong(statsDuration, END_TIME, -1);
         } else {
-            StatsDuration statsDuration = statsDurations.get(id);
-            if (statsDuration == null) {
+            if (statsDuration == -1) {
                 System.err.println("Error for id [" + id + "]. This id hasn't started");
                 return;
             }
-            statsDuration.endTime(time);
+            if (!listing && statsDurations.getLong(statsDuration, END_TIME) == -1) {
+                histogram.record(time - statsDurations.getLong(statsDuration, START_TIME));
+            }
+            endTime(statsDuration, id, time);
+        }
+    }
+
+    @Override
+    public String checkpointConfiguration() {
+        return LISTING_PROPERTY + "=" + listing;
+    }
+
+    @Override
+    public void saveState(DataOutput output) throws IOException {
+        histogram.save(output);
+        output.writeInt(statsDurations.size());
+        for (int record = statsDurations.next(-1); record != -1; record = statsDurations.next(record)) {
+            output.writeUTF(statsDurations.key(record));
+            output.writeLong(statsDurations.getLong(record, START_TIME));
+            output.writeLong(statsDurations.getLong(record, END_TIME));
+        }
+    }
+
+    @Override
+    public void restoreState(DataInput input) throws IOException {
+        histogram.restore(input);
+        statsDurations.clear();
+        int size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+            int statsDuration = statsDurations.add(input.readUTF());
+            statsDurations.putLong(statsDuration, START_TIME, input.readLong());
+            statsDurations.putLong(statsDuration, END_TIME, input.readLong());
         }
     }
 
@@ -76,50 +156,49 @@ public class TxTimeAnalyzer implements Analyzer {
         return builder.toString();
     }
 
-    private class StatsDuration implements Comparable<StatsDuration> {
-        private final String id;
-        private final long startTime;
-        private long endTime;
-
-        private StatsDuration(String id, long startTime) {
-            this.id = id;
-            this.startTime = startTime;
-            this.endTime = -1;
-        }
-
-        public long duration() {
-            return endTime == -1 ? -1 : endTime - startTime;
+    private void printSummary() {
+        RecordWriter output = Outputs.writer(getClass());
+        output.line("Stats durations (msec): count=" + prettyPrintNumber(histogram.count()) +
+                ", min=" + prettyPrintNumber(histogram.min()) +
+                ", mean=" + prettyPrintNumber(histogram.mean()) +
+                ", max=" + prettyPrintNumber(histogram.max()));
+        StringBuilder percentiles = new StringBuilder("Percentiles (msec):");
+        for (double percentile : PERCENTILES) {
+            percentiles.append(" p").append(prettyPrintNumber(percentile)).append('=')
+                    .append(prettyPrintNumber(histogram.valueAtPercentile(percentile)));
         }
-
-        public void endTime(long endTime) {
-            if (this.endTime != -1) {
-                System.err.println("Error for id [" + id + "]. This transaction statistic was already flushed! first flush @ "
-                        + prettyPrintTime(endTime) + " and second flush @ " +
-                        prettyPrintTime(this.endTime) + ". time elapsed="
-                        + (endTime - this.endTime) + " (msec)");
+        output.line(percentiles);
+        long notFinished = 0;
+        for (int record = statsDurations.next(-1); record != -1; record = statsDurations.next(record)) {
+            if (statsDurations.getLong(record, END_TIME) == -1) {
+                notFinished++;
             }
-            this.endTime = endTime;
         }
+        output.line("Not finished: " + prettyPrintNumber(notFinished));
+    }
 
-        @Override
-        public int compareTo(StatsDuration o) {
-            if (duration() == -1) {
-                return 1;
-            } else if (o.duration() == -1) {
-                return -1;
-            }
-            return Long.valueOf(duration()).compareTo(o.duration());
+    private long duration(int statsDuration) {
+        long endTime = statsDurations.getLong(statsDuration, END_TIME);
+        return endTime == -1 ? -1 : endTime - statsDurations.getLong(statsDuration, START_TIME);
+    }
 
+    private void endTime(int statsDuration, String id, long endTime) {
+        long previousEndTime = statsDurations.getLong(statsDuration, END_TIME);
+        if (previousEndTime != -1) {
+            System.err.println("Error for id [" + id + "]. This transaction statistic was already flushed! first flush @ "
+                    + prettyPrintTime(endTime) + " and second flush @ " +
+                    prettyPrintTime(previousEndTime) + ". time elapsed="
+                    + (endTime - previousEndTime) + " (msec)");
         }
+        statsDurations.putLong(statsDuration, END_TIME, endTime);
+    }
 
-        @Override
-        public String toString() {
-            return "StatsDuration{" +
-                    "id='" + id + '\'' +
-                    ", startTime=" + prettyPrintTime(startTime) +
-                    ", endTime=" + prettyPrintTime(endTime) +
-                    ", duration=" + prettyPrintNumber(duration()) + " (msec)" +
-                    '}';
-        }
+    private String toString(int statsDuration) {
+        return "StatsDuration{" +
+                "id='" + statsDurations.key(statsDuration) + '\'' +
+                ", startTime=" + prettyPrintTime(statsDurations.getLong(statsDuration, START_TIME)) +
+                ", endTime=" + prettyPrintTime(statsDurations.getLong(statsDuration, END_TIME)) +
+                ", duration=" + prettyPrintNumber(duration(statsDuration)) + " (msec)" +
+                '}';
     }
 }
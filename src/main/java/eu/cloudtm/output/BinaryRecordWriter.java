@@ -0,0 +1,66 @@
+package eu.cloudtm.output;
+
+/**
+ * Writes the records in a compact binary format. Each field is a tag followed by its value:
+ * <ul>
+ * <li>{@code 'L'} and 8 bytes (big-endian) for a long;</li>
+ * <li>{@code 'D'} and 8 bytes (the IEEE 754 bits, big-endian) for a double;</li>
+ * <li>{@code 'S'}, the length (variable length int) and the UTF-8 bytes for a string.</li>
+ * </ul>
+ * A record ends with the tag {@code 'E'}. A header is a record starting with the tag {@code 'H'} and a text line is the
+ * tag {@code 'T'}, the length and the UTF-8 bytes.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class BinaryRecordWriter extends RecordWriter {
+
+    public BinaryRecordWriter(OutputSink sink) {
+        super(sink);
+    }
+
+    @Override
+    public void header(String... names) {
+        appendByte('H');
+        for (String name : names) {
+            field(name);
+        }
+        endRecord();
+    }
+
+    @Override
+    public RecordWriter field(long value) {
+        appendByte('L');
+        appendLong(value);
+        return this;
+    }
+
+    @Override
+    public RecordWriter field(double value) {
+        appendByte('D');
+        appendLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    public RecordWriter field(CharSequence value) {
+        appendByte('S');
+        appendVarInt(utf8Length(value));
+        appendText(value);
+        return this;
+    }
+
+    @Override
+    public void endRecord() {
+        appendByte('E');
+        flushRecord();
+    }
+
+    @Override
+    public void line(CharSequence text) {
+        appendByte('T');
+        appendVarInt(utf8Length(text));
+        appendText(text);
+        flushRecord();
+    }
+}
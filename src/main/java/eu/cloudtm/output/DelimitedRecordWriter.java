@@ -0,0 +1,129 @@
+package eu.cloudtm.output;
+
+/**
+ * Writes the records as lines of fields separated by a delimiter: comma separated values (the fields with a comma,
+ * quote or line break are quoted, RFC 4180) or tab separated values (the tabs, line breaks and backslashes are
+ * escaped).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class DelimitedRecordWriter extends RecordWriter {
+
+    private final char delimiter;
+    private final boolean quote;
+    private boolean firstField;
+
+    /**
+     * @param quote if {@code true}, the fields are quoted when needed (CSV). Otherwise, they are escaped (TSV).
+     */
+    public DelimitedRecordWriter(OutputSink sink, char delimiter, boolean quote) {
+        super(sink);
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.firstField = true;
+    }
+
+    public static DelimitedRecordWriter csv(OutputSink sink) {
+        return new DelimitedRecordWriter(sink, ',', true);
+    }
+
+    public static DelimitedRecordWriter tsv(OutputSink sink) {
+        return new DelimitedRecordWriter(sink, '\t', false);
+    }
+
+    @Override
+    public void header(String... names) {
+        for (String name : names) {
+            field(name);
+        }
+        endRecord();
+    }
+
+    @Override
+    public RecordWriter field(long value) {
+        delimit();
+        appendDecimal(value);
+        return this;
+    }
+
+    @Override
+    public RecordWriter field(double value) {
+        delimit();
+        appendDecimal(value);
+        return this;
+    }
+
+    @Override
+    public RecordWriter field(CharSequence value) {
+        delimit();
+        if (quote) {
+            appendQuoted(value);
+        } else {
+            appendEscaped(value);
+        }
+        return this;
+    }
+
+    @Override
+    public void endRecord() {
+        appendByte('\n');
+        flushRecord();
+        firstField = true;
+    }
+
+    @Override
+    public void line(CharSequence text) {
+        if (!firstField) {
+            throw new IllegalStateException("Record not ended");
+        }
+        appendText(text);
+        appendByte('\n');
+        flushRecord();
+    }
+
+    private void delimit() {
+        if (!firstField) {
+            appendByte(delimiter);
+        }
+        firstField = false;
+    }
+
+    private void appendQuoted(CharSequence value) {
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; ++i) {
+            char c = value.charAt(i);
+            needsQuotes = c == delimiter || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            appendText(value);
+            return;
+        }
+        appendByte('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            if (value.charAt(i) == '"') {
+                appendText(value, start, i + 1);
+                appendByte('"');
+                start = i + 1;
+            }
+        }
+        appendText(value, start, value.length());
+        appendByte('"');
+    }
+
+    private void appendEscaped(CharSequence value) {
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            char escape = c == delimiter ? 't' : c == '\n' ? 'n' : c == '\r' ? 'r' : c == '\\' ? '\\' : 0;
+            if (escape != 0) {
+                appendText(value, start, i);
+                appendByte('\\');
+                appendByte(escape);
+                start = i + 1;
+            }
+        }
+        appendText(value, start, value.length());
+    }
+}
@@ -0,0 +1,52 @@
+package eu.cloudtm.output;
+
+/**
+ * The formats of the analyzers' output.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public enum OutputFormat {
+    CSV("csv") {
+        @Override
+        public RecordWriter newWriter(OutputSink sink) {
+            return DelimitedRecordWriter.csv(sink);
+        }
+    },
+    TSV("tsv") {
+        @Override
+        public RecordWriter newWriter(OutputSink sink) {
+            return DelimitedRecordWriter.tsv(sink);
+        }
+    },
+    BINARY("bin") {
+        @Override
+        public RecordWriter newWriter(OutputSink sink) {
+            return new BinaryRecordWriter(sink);
+        }
+    };
+
+    private final String extension;
+
+    private OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public abstract RecordWriter newWriter(OutputSink sink);
+
+    /**
+     * @return the extension of the output files
+     */
+    public final String extension() {
+        return extension;
+    }
+
+    public static OutputFormat fromString(String value) {
+        for (OutputFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown output format " + value);
+    }
+}
@@ -0,0 +1,215 @@
+package eu.cloudtm.output;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes bytes to a stream in a background thread. The bytes are copied to a large buffer and the full buffers are
+ * written by the writer thread, so the analyzers do not wait for the console or the disk (unless all the buffers are
+ * full). When the writer thread is idle, it also writes the bytes buffered for more than {@link #IDLE_FLUSH_MILLIS},
+ * so the output is not delayed (for example, when following a log).
+ * <p/>
+ * The writes are thread safe and each write is atomic: the bytes of a write are not interleaved with other writes. The
+ * writer thread never waits for the writers' lock: a writer holding it may be waiting for a free buffer.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class OutputSink implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    private static final int BUFFERS = 4;
+    private static final long IDLE_FLUSH_MILLIS = 100;
+    private static final Chunk END = new Chunk(0);
+    private final OutputStream stream;
+    private final boolean closeStream;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> full;
+    private final Thread writer;
+    private final ReentrantLock lock;
+    private Chunk current;
+    private boolean closed;
+    private volatile IOException error;
+
+    /**
+     * @param closeStream if {@code true}, the stream is closed by {@link #close()}. Otherwise, it is only flushed.
+     */
+    public OutputSink(OutputStream stream, boolean closeStream, int bufferSize, String name) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.stream = stream;
+        this.closeStream = closeStream;
+        this.free = new ArrayBlockingQueue<Chunk>(BUFFERS);
+        this.full = new LinkedBlockingQueue<Chunk>();
+        for (int i = 1; i < BUFFERS; ++i) {
+            free.add(new Chunk(bufferSize));
+        }
+        this.current = new Chunk(bufferSize);
+        this.lock = new ReentrantLock();
+        this.writer = new Thread("output-" + name) {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return a sink writing to the standard output (that is not closed)
+     */
+    public static OutputSink stdout() {
+        return new OutputSink(new FileOutputStream(FileDescriptor.out), false, DEFAULT_BUFFER_SIZE, "stdout");
+    }
+
+    public final void write(byte[] bytes, int offset, int length) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Output is closed");
+            }
+            checkError();
+            while (length > 0) {
+                int toCopy = Math.min(length, current.data.length - current.length);
+                System.arraycopy(bytes, offset, current.data, current.length, toCopy);
+                current.length += toCopy;
+                offset += toCopy;
+                length -= toCopy;
+                if (current.length == current.data.length) {
+                    handOff();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes, waits for the writer thread and closes (or flushes) the stream.
+     */
+    @Override
+    public final void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (current.length > 0) {
+                handOff();
+            }
+            full.add(END);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeStream) {
+            stream.close();
+        } else {
+            stream.flush();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void checkError() {
+        if (error != null) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * Passes the current buffer to the writer thread and waits for a free buffer. Invoked with the lock held.
+     */
+    private void handOff() {
+        full.add(current);
+        try {
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the output", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = full.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunk == null) {
+                chunk = takePartialChunk();
+                if (chunk == null) {
+                    continue;
+                }
+            } else if (chunk == END) {
+                return;
+            }
+            try {
+                if (error == null) {
+                    stream.write(chunk.data, 0, chunk.length);
+                    if (full.isEmpty()) {
+                        stream.flush();
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            chunk.length = 0;
+            free.add(chunk);
+        }
+    }
+
+    /**
+     * @return the current buffer, if it has bytes, no write is in progress, no full buffer is waiting to be written
+     * before it and a free buffer exists to replace it
+     */
+    Chunk takePartialChunk() {
+        //a write in progress hands off its buffers when they are full
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            //a write completed after the poll timed out: the current buffer must wait for the full ones
+            if (current.length == 0 || !full.isEmpty()) {
+                return null;
+            }
+            Chunk replacement = free.poll();
+            if (replacement == null) {
+                return null;
+            }
+            Chunk chunk = current;
+            current = replacement;
+            return chunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] data;
+        private int length;
+
+        private Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package eu.cloudtm.output;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The output of each analyzer. By default, all the analyzers write to the standard output. If a directory is
+ * configured, each analyzer class writes to its own file ({@code <directory>/<class name>.<extension>}).
+ * <p/>
+ * The output is written in background, so {@link #closeAll()} must be invoked before the process exits.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class Outputs {
+
+    private static final Map<String, OutputSink> SINKS = new HashMap<String, OutputSink>();
+    private static final String STDOUT = "";
+    private static File directory;
+    private static OutputFormat format = OutputFormat.CSV;
+
+    private Outputs() {
+    }
+
+    /**
+     * @param directory the directory of the analyzers' files or {@code null} to write to the standard output
+     */
+    public static synchronized void configure(File directory, OutputFormat format) {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        }
+        Outputs.directory = directory;
+        Outputs.format = format;
+    }
+
+    /**
+     * @return a new writer to the analyzer's output. The writers of the same analyzer class share the output.
+     */
+    public static synchronized RecordWriter writer(Class<?> analyzerClass) {
+        String name = directory == null ? STDOUT : analyzerClass.getName();
+        OutputSink sink = SINKS.get(name);
+        if (sink == null) {
+            sink = directory == null ? OutputSink.stdout() : fileSink(name);
+            SINKS.put(name, sink);
+        }
+        return format.newWriter(sink);
+    }
+
+    /**
+     * Writes the buffered output and closes the files.
+     */
+    public static synchronized void closeAll() {
+        for (Map.Entry<String, OutputSink> entry : SINKS.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                System.err.println("Error writing the output " + (entry.getKey().equals(STDOUT) ? "stdout" :
+                        entry.getKey()) + ": " + e.getMessage());
+            }
+        }
+        SINKS.clear();
+    }
+
+    private static OutputSink fileSink(String name) {
+        File file = new File(directory, name + "." + format.extension());
+        try {
+            return new OutputSink(new FileOutputStream(file), true, OutputSink.DEFAULT_BUFFER_SIZE, name);
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException("Cannot create " + file, e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package eu.cloudtm.output;
+
+import java.util.Arrays;
+
+/**
+ * Formats the analyzers' output (records of fields and free text lines) and writes it to an {@link OutputSink}. Each
+ * record (or line) is built in a local buffer and written to the sink when it ends, so the records of different
+ * writers sharing a sink are not interleaved.
+ * <p/>
+ * The numbers are encoded directly in the buffer, without creating strings. The text is encoded in UTF-8.
+ * <p/>
+ * A writer is not thread safe: each analyzer (or thread) must use its own writer (see {@link
+ * Outputs#writer(Class)}).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public abstract class RecordWriter {
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+    private static final byte[] NAN = "NaN".getBytes();
+    private static final byte[] INFINITY = "Infinity".getBytes();
+    private static final long DECIMAL_SCALE = 1000000;
+    private static final int DECIMAL_DIGITS = 6;
+    private final OutputSink sink;
+    private final byte[] digits;
+    private byte[] buffer;
+    private int size;
+
+    protected RecordWriter(OutputSink sink) {
+        this.sink = sink;
+        this.digits = new byte[20];
+        this.buffer = new byte[256];
+    }
+
+    /**
+     * Writes the names of the fields.
+     */
+    public abstract void header(String... names);
+
+    public abstract RecordWriter field(long value);
+
+    /**
+     * The text formats write the value with 6 decimal places, at most.
+     */
+    public abstract RecordWriter field(double value);
+
+    public abstract RecordWriter field(CharSequence value);
+
+    public abstract void endRecord();
+
+    /**
+     * Writes a free text line (for example, a report or a log entry).
+     */
+    public abstract void line(CharSequence text);
+
+    /**
+     * Writes the buffer to the sink.
+     */
+    protected final void flushRecord() {
+        sink.write(buffer, 0, size);
+        size = 0;
+    }
+
+    protected final void appendByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Appends the decimal representation of the value.
+     */
+    protected final void appendDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            appendBytes(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            appendByte('-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensureCapacity(length);
+        while (length > 0) {
+            buffer[size++] = digits[--length];
+        }
+    }
+
+    /**
+     * Appends the decimal representation of the value, with 6 decimal places at most (and at least one).
+     */
+    protected final void appendDecimal(double value) {
+        if (Double.isNaN(value)) {
+            appendBytes(NAN);
+            return;
+        }
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            appendByte('-');
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            appendBytes(INFINITY);
+            return;
+        }
+        if (value >= Long.MAX_VALUE / DECIMAL_SCALE) {
+            //too large for the fixed point representation (rare)
+            appendText(Double.toString(value));
+            return;
+        }
+        long scaled = Math.round(value * DECIMAL_SCALE);
+        appendDecimal(scaled / DECIMAL_SCALE);
+        appendByte('.');
+        long fraction = scaled % DECIMAL_SCALE;
+        int length = DECIMAL_DIGITS;
+        while (length > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            length--;
+        }
+        ensureCapacity(length);
+        for (int i = length - 1; i >= 0; --i) {
+            buffer[size + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        size += length;
+    }
+
+    /**
+     * Appends the 8 bytes of the value, big-endian.
+     */
+    protected final void appendLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (value >>> shift);
+        }
+    }
+
+    protected final void appendVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            appendByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        appendByte(value);
+    }
+
+    /**
+     * Appends the text encoded in UTF-8.
+     */
+    protected final void appendText(CharSequence text) {
+        appendText(text, 0, text.length());
+    }
+
+    protected final void appendText(CharSequence text, int start, int end) {
+        ensureCapacity((end - start) * 3);
+        for (int i = start; i < end; ++i) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes of the text encoded in UTF-8
+     */
+    protected static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void appendBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * Parses a log file sequentially, in chunks. The chunk boundaries are in the beginning of a log entry, so the parsing
+ * can be resumed from the end of a chunk (see {@link #atChunkEnd()}).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class ChunkedLogIterator implements LogIterator {
+
+    public static final long DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    private final RangeParser parser;
+    private final FileChannel channel;
+    private final long size;
+    private final long chunkSize;
+    private final LogFilter filter;
+    private RangeParser.RangeLogIterator currentChunk;
+    private long chunkStart;
+    private long chunkEnd;
+    private int chunkLineNumber;
+
+    /**
+     * @param start           the offset where to start parsing. It must be the beginning of a log entry.
+     * @param firstLineNumber the line number of the line starting at offset {@code start}
+     * @param filter          the filter or {@code null} to parse all the entries
+     */
+    public ChunkedLogIterator(RangeParser parser, FileChannel channel, long start, int firstLineNumber,
+                              long chunkSize, LogFilter filter) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.parser = parser;
+        this.channel = channel;
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+        this.filter = filter;
+        this.chunkStart = start;
+        this.chunkEnd = start;
+        this.chunkLineNumber = firstLineNumber;
+    }
+
+    @Override
+    public final boolean hasNext() throws Exception {
+        while (currentChunk == null || !currentChunk.hasNext()) {
+            if (currentChunk != null) {
+                chunkLineNumber += currentChunk.linesRead();
+                chunkStart = chunkEnd;
+                currentChunk = null;
+            }
+            if (chunkStart >= size) {
+                return false;
+            }
+            chunkEnd = ParallelLogIterator.nextEntryStart(parser, channel, chunkStart + chunkSize, size);
+            currentChunk = parser.parse(channel, chunkStart, chunkEnd, chunkLineNumber, filter);
+        }
+        return true;
+    }
+
+    @Override
+    public final LogEntry next() throws Exception {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentChunk.next();
+    }
+
+    /**
+     * @return {@code true} if all the entries of the current chunk were returned. Then, the parsing can be resumed
+     *         from {@link #resumeOffset()} and {@link #resumeLineNumber()}.
+     */
+    public final boolean atChunkEnd() throws Exception {
+        return currentChunk != null && !currentChunk.hasNext();
+    }
+
+    /**
+     * @return the offset of the next chunk. Only valid if {@link #atChunkEnd()}.
+     */
+    public final long resumeOffset() {
+        return chunkEnd;
+    }
+
+    /**
+     * @return the line number of the next chunk. Only valid if {@link #atChunkEnd()}.
+     */
+    public final int resumeLineNumber() {
+        return chunkLineNumber + currentChunk.linesRead();
+    }
+}
@@ -0,0 +1,46 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Returns only the entries accepted by a {@link LogFilter}. Used by the parsers that cannot test the filter before
+ * building the entries.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class FilteredLogIterator implements LogIterator {
+
+    private final LogIterator iterator;
+    private final LogFilter filter;
+    private LogEntry nextEntry;
+
+    public FilteredLogIterator(LogIterator iterator, LogFilter filter) {
+        this.iterator = iterator;
+        this.filter = filter;
+    }
+
+    @Override
+    public final boolean hasNext() throws Exception {
+        while (nextEntry == null && iterator.hasNext()) {
+            LogEntry entry = iterator.next();
+            if (filter.accept(entry)) {
+                nextEntry = entry;
+            }
+        }
+        return nextEntry != null;
+    }
+
+    @Override
+    public final LogEntry next() throws Exception {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LogEntry entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+}
@@ -0,0 +1,100 @@
+package eu.cloudtm.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link InputStream} over a file that is still being written (like {@code tail -f}). When the end of the file is
+ * reached, it polls the file for new data instead of returning the end of stream. The end of stream is only returned
+ * after {@link #close()} is invoked and all the data written so far is read.
+ * <p/>
+ * Since the parsers only return a log entry after reading the first line of the next one, a multi-line entry at the
+ * end of the file is held back until the next entry is written (or the stream is closed). If the file is truncated,
+ * it is read again from the beginning.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class FollowInputStream extends InputStream {
+
+    public static final long DEFAULT_POLL_INTERVAL = 100;
+    private final File file;
+    private final long pollInterval;
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final Object waitLock;
+    private volatile boolean closed;
+
+    public FollowInputStream(File file) throws IOException {
+        this(file, DEFAULT_POLL_INTERVAL);
+    }
+
+    public FollowInputStream(File file, long pollInterval) throws IOException {
+        this.file = file;
+        this.pollInterval = pollInterval;
+        this.stream = new FileInputStream(file);
+        this.channel = stream.getChannel();
+        this.waitLock = new Object();
+        this.closed = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            int read = stream.read(b, off, len);
+            if (read > 0) {
+                return read;
+            } else if (closed) {
+                stream.close();
+                return -1;
+            } else if (channel.size() < channel.position()) {
+                System.err.println(file + " was truncated. Reading it from the beginning");
+                channel.position(0);
+            } else {
+                waitForData();
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed && !channel.isOpen() ? 0 : stream.available();
+    }
+
+    /**
+     * Stops following the file: the remaining data is returned and then the end of stream.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (waitLock) {
+            waitLock.notifyAll();
+        }
+    }
+
+    private void waitForData() throws IOException {
+        try {
+            synchronized (waitLock) {
+                if (!closed) {
+                    waitLock.wait(pollInterval);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while following " + file);
+        }
+    }
+}
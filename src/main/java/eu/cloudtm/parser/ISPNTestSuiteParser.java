@@ -1,34 +1,81 @@
 package eu.cloudtm.parser;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogEntryBatch;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.SymbolTable.Symbol;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.DateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
+import static eu.cloudtm.parser.TimestampDecoder.INVALID;
+
 /**
  * @author Pedro Ruivo
  * @since 1.0
  */
-public class ISPNTestSuiteParser implements Parser {
+public class ISPNTestSuiteParser implements RangeParser {
 
-    private static final DateFormat TIMESTAMP_PARSER = new SimpleDateFormat("HH:mm:ss,SSS");
-    private static final DateFormat DATE_PARSER = new SimpleDateFormat("yyyy-MM-dd");
+    private static final TimestampDecoder TIMESTAMP_DECODER = new TimestampDecoder();
     private static final String FORMAT_PROPERTY = "ispn.logFormat";
+    private static final String MAPPED_PROPERTY = "ispn.mmap";
+    private static final String FLYWEIGHT_PROPERTY = "ispn.flyweight";
+    private static final Charset CHARSET = Charset.defaultCharset();
     private final LogFormat logFormat;
+    private final boolean mapped;
+    private final boolean flyweight;
 
     public ISPNTestSuiteParser() {
         logFormat = LogFormat.fromString(System.getProperty(FORMAT_PROPERTY));
+        mapped = Boolean.getBoolean(MAPPED_PROPERTY);
+        flyweight = Boolean.getBoolean(FLYWEIGHT_PROPERTY);
     }
 
     @Override
     public final LogIterator parse(InputStream inputStream) throws Exception {
-        return new LogEntryIterator(inputStream);
+        return parse(inputStream, null);
+    }
+
+    /**
+     * The filter is tested after decoding the time, level, class and thread, and before decoding the message.
+     */
+    @Override
+    public final LogIterator parse(InputStream inputStream, LogFilter filter) throws Exception {
+        if (mapped && inputStream instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) inputStream).getChannel();
+            return new MappedLogEntryIterator(new MappedLineReader(channel, channel.position(), channel.size()), 1,
+                    flyweight, filter);
+        }
+        return new LogEntryIterator(inputStream, filter);
+    }
+
+    @Override
+    public final String configuration() {
+        return getClass().getName() + "[" + logFormat + "]";
+    }
+
+    @Override
+    public final boolean isEntryStart(ByteBuffer buffer, int start, int end) {
+        ByteLineState state = new ByteLineState().line(buffer, start, end);
+        return state.hasNext() && !Character.isWhitespace(state.peek()) && tryParse(state);
+    }
+
+    @Override
+    public final RangeLogIterator parse(FileChannel channel, long start, long end, int firstLineNumber,
+                                        LogFilter filter) throws Exception {
+        return new MappedLogEntryIterator(new MappedLineReader(channel, start, end), firstLineNumber, false, filter);
     }
 
     /**
@@ -45,7 +92,11 @@ public class ISPNTestSuiteParser implements Parser {
         return false;
     }
 
-    private LogEntry parseLine(int lineNumber, String line) throws Exception {
+    /**
+     * @return the log entry or {@code null} if the line is not the first line of an entry or the entry is not accepted
+     *         by the filter
+     */
+    private LogEntry parseLine(int lineNumber, String line, LogFilter filter) throws Exception {
         if (line == null || line.isEmpty() || Character.isWhitespace(line.charAt(0))) {
             return null;
         }
@@ -61,59 +112,66 @@ public class ISPNTestSuiteParser implements Parser {
             case FORMAT_3:
                 //format-3: time{h:m:s,S} level (thread) [class] message
                 time += parseTime(state);
-                String level = parseLevel(state);
-                String thread = parseThread(state);
-                String clazz = parseClass(state);
-                return new LogEntry(lineNumber, time, level, clazz, thread, parseMessage(state));
+                Symbol level = parseLevel(state);
+                Symbol thread = parseThread(state);
+                Symbol clazz = parseClass(state);
+                return newEntry(lineNumber, time, level, clazz, thread, state, filter);
             case FORMAT_2:
                 //format-older: date{yyyy-mm-dd} time{h:m:s,S} timestamp level [class] (thread) message
                 parseDate(state); //skip state because log entry does not have it
                 parseTime(state); //skip time, we have the timestamp
-                return new LogEntry(lineNumber, parseTimeStamp(state), parseLevel(state), parseClass(state), parseThread(state),
-                        parseMessage(state));
+                time = parseTimeStamp(state);
+                level = parseLevel(state);
+                clazz = parseClass(state);
+                thread = parseThread(state);
+                return newEntry(lineNumber, time, level, clazz, thread, state, filter);
             default:
                 throw new IllegalStateException();
         }
     }
 
+    private LogEntry newEntry(int lineNumber, long time, Symbol level, Symbol clazz, Symbol thread, LineState state,
+                              LogFilter filter) {
+        if (filter != null && !(filter.accept(time, level, clazz, thread) &&
+                filter.acceptMessage(state.array, state.nextPosition, state.array.length))) {
+            return null;
+        }
+        return new LogEntry(lineNumber, time, level, clazz, thread, parseMessage(state));
+    }
+
     private boolean tryParse(LineState state) {
         try {
             switch (logFormat) {
                 case FORMAT_1:
                 case FORMAT_2:
-                    parseDate(state);
-                    break;
+                    return decodeDate(state) != INVALID;
                 case FORMAT_3:
-                    parseTime(state);
-                    break;
+                    return decodeTime(state) != INVALID;
                 default: throw new IllegalStateException();
             }
-        } catch (ParseException e) {
-            return false;
         } finally {
             state.reset();
         }
-        return true;
     }
 
     private long parseTime(LineState state) throws ParseException {
-        assertHasNext(state);
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ' ') {
-            builder.append(c);
-        }
-        return TIMESTAMP_PARSER.parse(builder.toString()).getTime();
+        return assertValid(decodeTime(state), state.nextPosition);
     }
 
     private long parseDate(LineState state) throws ParseException {
+        return assertValid(decodeDate(state), state.nextPosition);
+    }
+
+    private long decodeTime(LineState state) {
         assertHasNext(state);
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ' ') {
-            builder.append(c);
-        }
-        return DATE_PARSER.parse(builder.toString()).getTime();
+        int start = state.nextPosition;
+        return TIMESTAMP_DECODER.decodeTime(state.array, start, state.skipToken(' '));
+    }
+
+    private long decodeDate(LineState state) {
+        assertHasNext(state);
+        int start = state.nextPosition;
+        return TIMESTAMP_DECODER.decodeDate(state.array, start, state.skipToken(' '));
     }
 
     private long parseTimeStamp(LineState state) throws ParseException {
@@ -126,47 +184,49 @@ public class ISPNTestSuiteParser implements Parser {
         return Long.parseLong(builder.toString());
     }
 
-    private String parseLevel(LineState state) {
+    private Symbol parseLevel(LineState state) {
         assertHasNext(state);
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ' ') {
-            builder.append(c);
+        int start = state.nextPosition;
+        int end = state.skipToken(' ');
+        //trim
+        while (start < end && state.array[start] <= ' ') {
+            start++;
+        }
+        while (end > start && state.array[end - 1] <= ' ') {
+            end--;
         }
-        return builder.toString().trim();
+        return LEVELS.intern(state.array, start, end);
     }
 
-    private String parseClass(LineState state) {
+    private Symbol parseClass(LineState state) {
         assertHasNext(state);
         assertNextChar(state, '[');
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ']') {
-            builder.append(c);
-        }
+        int start = state.nextPosition;
+        int end = state.skipToken(']');
         state.skip(1); //skip space
-        return builder.toString();
+        return CLASSES.intern(state.array, start, end);
     }
 
-    private String parseThread(LineState state) {
+    private Symbol parseThread(LineState state) {
         assertHasNext(state);
         assertNextChar(state, '(');
         int level = 0;
-        StringBuilder builder = new StringBuilder();
+        int start = state.nextPosition;
+        int end = state.array.length;
         char c;
         while (state.hasNext()) {
             c = state.next();
             if (level == 0 && c == ')') {
+                end = state.nextPosition - 1;
                 break;
             } else if (c == '(') {
                 level++;
             } else if (c == ')') {
                 level--;
             }
-            builder.append(c);
         }
         state.skip(1); //skip space
-        return builder.toString();
+        return THREADS.intern(state.array, start, end);
     }
 
     private String parseMessage(LineState state) {
@@ -177,6 +237,190 @@ public class ISPNTestSuiteParser implements Parser {
         return builder.toString();
     }
 
+    /**
+     * @return {@code true} if the line belongs to the log entry (i.e. it is not a new log entry), {@code false} otherwise
+     */
+    private boolean parseLine(LogEntry logEntry, ByteLineState state, FlyweightMessage flyweight) {
+        if (!state.hasNext()) {
+            return true;
+        }
+        if (!tryParse(state)) {
+            if (flyweight == null) {
+                logEntry.addNewLine(state.decode(state.start, state.end));
+            } else {
+                flyweight.addNewLine(state);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param flyweight if not {@code null}, its entry is reused and the message is not decoded
+     */
+    private LogEntry parseLine(int lineNumber, ByteLineState state, FlyweightMessage flyweight, LogFilter filter)
+            throws Exception {
+        if (!state.hasNext() || Character.isWhitespace(state.peek())) {
+            return null;
+        }
+        if (!tryParse(state)) {
+            return null;
+        }
+        long time = 0;
+        switch (logFormat) {
+            case FORMAT_1:
+                time = parseDate(state);
+            case FORMAT_3:
+                time += parseTime(state);
+                Symbol level = parseLevel(state);
+                Symbol thread = parseThread(state);
+                Symbol clazz = parseClass(state);
+                return newEntry(lineNumber, time, level, clazz, thread, state, flyweight, filter);
+            case FORMAT_2:
+                parseDate(state);
+                parseTime(state);
+                time = parseTimeStamp(state);
+                level = parseLevel(state);
+                clazz = parseClass(state);
+                thread = parseThread(state);
+                return newEntry(lineNumber, time, level, clazz, thread, state, flyweight, filter);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private boolean tryParse(ByteLineState state) {
+        try {
+            switch (logFormat) {
+                case FORMAT_1:
+                case FORMAT_2:
+                    return decodeDate(state) != INVALID;
+                case FORMAT_3:
+                    return decodeTime(state) != INVALID;
+                default: throw new IllegalStateException();
+            }
+        } finally {
+            state.reset();
+        }
+    }
+
+    private long parseTime(ByteLineState state) throws ParseException {
+        return assertValid(decodeTime(state), state.nextPosition - state.start);
+    }
+
+    private long parseDate(ByteLineState state) throws ParseException {
+        return assertValid(decodeDate(state), state.nextPosition - state.start);
+    }
+
+    private long decodeTime(ByteLineState state) {
+        assertHasNext(state);
+        int start = state.nextPosition;
+        return TIMESTAMP_DECODER.decodeTime(state.buffer, start, state.skipToken(' '));
+    }
+
+    private long decodeDate(ByteLineState state) {
+        assertHasNext(state);
+        int start = state.nextPosition;
+        return TIMESTAMP_DECODER.decodeDate(state.buffer, start, state.skipToken(' '));
+    }
+
+    private long parseTimeStamp(ByteLineState state) {
+        assertHasNext(state);
+        return Long.parseLong(state.nextToken(' '));
+    }
+
+    private Symbol parseLevel(ByteLineState state) {
+        assertHasNext(state);
+        int start = state.nextPosition;
+        int end = state.skipToken(' ');
+        //trim
+        while (start < end && isBlank(state.buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isBlank(state.buffer.get(end - 1))) {
+            end--;
+        }
+        return LEVELS.intern(state.buffer, start, end, CHARSET);
+    }
+
+    private Symbol parseClass(ByteLineState state) {
+        assertHasNext(state);
+        assertNextChar(state, '[');
+        int start = state.nextPosition;
+        int end = state.skipToken(']');
+        state.skip(1); //skip space
+        return CLASSES.intern(state.buffer, start, end, CHARSET);
+    }
+
+    private static boolean isBlank(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private Symbol parseThread(ByteLineState state) {
+        assertHasNext(state);
+        assertNextChar(state, '(');
+        int level = 0;
+        int start = state.nextPosition;
+        int end = state.end;
+        byte b;
+        while (state.hasNext()) {
+            b = state.next();
+            if (level == 0 && b == ')') {
+                end = state.nextPosition - 1;
+                break;
+            } else if (b == '(') {
+                level++;
+            } else if (b == ')') {
+                level--;
+            }
+        }
+        state.skip(1); //skip space
+        return THREADS.intern(state.buffer, start, end, CHARSET);
+    }
+
+    private LogEntry newEntry(int lineNumber, long time, Symbol level, Symbol clazz, Symbol thread,
+                              ByteLineState state, FlyweightMessage flyweight, LogFilter filter) {
+        if (filter != null && !(filter.accept(time, level, clazz, thread) &&
+                filter.acceptMessage(state.buffer, state.nextPosition, state.end, CHARSET))) {
+            return null;
+        }
+        if (flyweight == null) {
+            return new LogEntry(lineNumber, time, level, clazz, thread, parseMessage(state));
+        }
+        flyweight.firstLine(state);
+        return flyweight.entry == null ?
+                flyweight.entry = new LogEntry(lineNumber, time, level, clazz, thread, flyweight) :
+                flyweight.entry.reuse(lineNumber, time, level, clazz, thread, flyweight);
+    }
+
+    private String parseMessage(ByteLineState state) {
+        String message = state.decode(state.nextPosition, state.end);
+        state.nextPosition = state.end;
+        return message;
+    }
+
+    private void assertNextChar(ByteLineState state, char c) {
+        boolean isSpaceExcepted = c == ' ';
+        while (state.hasNext()) {
+            byte current = state.next();
+            if (current == ' ' && isSpaceExcepted) {
+                return;
+            } else if (current == ' ') {
+                continue; //skip spaces
+            } else if (current == c) {
+                return;
+            }
+            throw new IllegalStateException("Expected a " + c + " as next char but it is " + (char) current +
+                    ". State=" + state);
+        }
+    }
+
+    private void assertHasNext(ByteLineState state) {
+        if (!state.hasNext()) {
+            throw new IllegalStateException("Reached EOL soon as expected. State=" + state);
+        }
+    }
+
     private void assertNextChar(LineState state, char c) {
         boolean isSpaceExcepted = c == ' ';
         while (state.hasNext()) {
@@ -193,6 +437,13 @@ public class ISPNTestSuiteParser implements Parser {
         }
     }
 
+    private long assertValid(long timestamp, int position) throws ParseException {
+        if (timestamp == INVALID) {
+            throw new ParseException("Unparseable date or time", position);
+        }
+        return timestamp;
+    }
+
     private void assertHasNext(LineState state) {
         if (!state.hasNext()) {
             throw new IllegalStateException("Reached EOL soon as expected. State=" + state);
@@ -255,6 +506,20 @@ public class ISPNTestSuiteParser implements Parser {
             nextPosition = 0;
         }
 
+        /**
+         * Moves to the char after the {@code delimiter} (or the end of line).
+         *
+         * @return the position of the delimiter (or the end of line)
+         */
+        public final int skipToken(char delimiter) {
+            int index = nextPosition;
+            while (index < array.length && array[index] != delimiter) {
+                index++;
+            }
+            nextPosition = index < array.length ? index + 1 : array.length;
+            return index;
+        }
+
         @Override
         public String toString() {
             return "LineState{" +
@@ -264,22 +529,119 @@ public class ISPNTestSuiteParser implements Parser {
         }
     }
 
+    /**
+     * Same as {@link LineState} but it reads the line directly from the (mapped) file buffer. The bytes are only
+     * decoded when a field is extracted.
+     */
+    private class ByteLineState {
+        private ByteBuffer buffer;
+        private int start;
+        private int end;
+        private int nextPosition;
+        private byte[] decodeBuffer;
+
+        private ByteLineState line(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.nextPosition = start;
+            return this;
+        }
+
+        public final byte next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("Reached EOL. State=" + this);
+            }
+            return buffer.get(nextPosition++);
+        }
+
+        public final char peek() {
+            return (char) (buffer.get(nextPosition) & 0xFF);
+        }
+
+        public final boolean hasNext() {
+            return nextPosition < end;
+        }
+
+        public final void skip(int bytes) {
+            nextPosition += bytes;
+        }
+
+        public final void reset() {
+            nextPosition = start;
+        }
+
+        /**
+         * Moves to the byte after the {@code delimiter} (or the end of line).
+         *
+         * @return the position of the delimiter (or the end of line)
+         */
+        public final int skipToken(char delimiter) {
+            int index = nextPosition;
+            while (index < end && buffer.get(index) != delimiter) {
+                index++;
+            }
+            nextPosition = index < end ? index + 1 : end;
+            return index;
+        }
+
+        /**
+         * @return the bytes until the {@code delimiter} (or the end of line). The delimiter is consumed.
+         */
+        public final String nextToken(char delimiter) {
+            int tokenStart = nextPosition;
+            return decode(tokenStart, skipToken(delimiter));
+        }
+
+        public final String decode(int from, int to) {
+            int length = to - from;
+            if (length <= 0) {
+                return "";
+            }
+            if (decodeBuffer == null || decodeBuffer.length < length) {
+                decodeBuffer = new byte[Math.max(length, 128)];
+            }
+            for (int i = 0; i < length; ++i) {
+                decodeBuffer[i] = buffer.get(from + i);
+            }
+            return new String(decodeBuffer, 0, length, CHARSET);
+        }
+
+        @Override
+        public String toString() {
+            return "ByteLineState{" +
+                    "line=" + decode(start, end) +
+                    ", nextPosition=" + (nextPosition - start) +
+                    '}';
+        }
+    }
+
     private class LogEntryIterator implements LogIterator {
 
         private final BufferedReader bufferedReader;
+        private final LogFilter filter;
         private String currentLine;
         private int lineNumber;
         private LogEntry nextEntry = null;
+        private boolean fetched = false;
 
-        private LogEntryIterator(InputStream inputStream) throws Exception {
+        private LogEntryIterator(InputStream inputStream, LogFilter filter) throws Exception {
             this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+            this.filter = filter;
             this.lineNumber = 0;
             nextLine();
-            nextEntry();
         }
 
+        /**
+         * The next entry is only parsed when needed, so that an entry is returned as soon as the first line of the
+         * following entry is read (important when following a log that is still being written).
+         */
         @Override
-        public final boolean hasNext() {
+        public final boolean hasNext() throws Exception {
+            if (!fetched) {
+                nextEntry();
+                fetched = true;
+            }
             return nextEntry != null;
         }
 
@@ -288,15 +650,14 @@ public class ISPNTestSuiteParser implements Parser {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            LogEntry entry = nextEntry;
-            nextEntry();
-            return entry;
+            fetched = false;
+            return nextEntry;
         }
 
         private void nextEntry() throws Exception {
             LogEntry entry = null;
             while (entry == null && currentLine != null) {
-                entry = parseLine(lineNumber, currentLine);
+                entry = parseLine(lineNumber, currentLine, filter);
                 nextLine();
             }
 
@@ -311,4 +672,183 @@ public class ISPNTestSuiteParser implements Parser {
             lineNumber++;
         }
     }
+
+    private class MappedLogEntryIterator implements RangeLogIterator {
+
+        private final MappedLineReader reader;
+        private final ByteLineState lineState;
+        private final FlyweightMessage flyweight;
+        private final LogFilter filter;
+        private FlyweightMessage batchMessage;
+        private ByteLineState currentLine;
+        private int lineNumber;
+        private int linesRead;
+        private LogEntry nextEntry = null;
+        private boolean fetched = false;
+
+        private MappedLogEntryIterator(MappedLineReader reader, int firstLineNumber, boolean flyweight,
+                                       LogFilter filter) throws Exception {
+            this.reader = reader;
+            this.filter = filter;
+            this.lineState = new ByteLineState();
+            this.flyweight = flyweight ? new FlyweightMessage() : null;
+            this.lineNumber = firstLineNumber - 1;
+            this.linesRead = 0;
+            nextLine();
+        }
+
+        @Override
+        public final boolean hasNext() throws Exception {
+            if (!fetched) {
+                nextEntry();
+                fetched = true;
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public final LogEntry next() throws Exception {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            return nextEntry;
+        }
+
+        /**
+         * The entries are copied from the mapped buffer to the batch, without creating the log entries nor their
+         * messages.
+         */
+        @Override
+        public final int nextBatch(LogEntryBatch batch) throws Exception {
+            batch.clear();
+            if (fetched && nextEntry != null) {
+                batch.add(nextEntry);
+            }
+            fetched = false;
+            if (batchMessage == null) {
+                batchMessage = new FlyweightMessage();
+            }
+            while (!batch.isFull()) {
+                LogEntry entry = readEntry(batchMessage);
+                if (entry == null) {
+                    break;
+                }
+                batch.add(entry.lineNumber(), entry.time(), entry.levelId(), entry.clazzId(), entry.threadId());
+                batchMessage.appendTo(batch);
+            }
+            return batch.size();
+        }
+
+        @Override
+        public final int linesRead() {
+            return linesRead;
+        }
+
+        private void nextEntry() throws Exception {
+            nextEntry = readEntry(flyweight);
+        }
+
+        private LogEntry readEntry(FlyweightMessage message) throws Exception {
+            LogEntry entry = null;
+            while (entry == null && currentLine != null) {
+                entry = parseLine(lineNumber, currentLine, message, filter);
+                nextLine();
+            }
+
+            while (entry != null && currentLine != null && parseLine(entry, currentLine, message)) {
+                nextLine();
+            }
+            return entry;
+        }
+
+        private void nextLine() throws IOException {
+            if (reader.nextLine()) {
+                currentLine = lineState.line(reader.buffer(), reader.lineStart(), reader.lineEnd());
+                linesRead++;
+            } else {
+                currentLine = null;
+            }
+            lineNumber++;
+        }
+    }
+
+    /**
+     * Keeps the position of the message lines in the mapped buffers and decodes them only when needed. The buffers are
+     * kept by reference, so the lines remain valid even if the reader maps a new window.
+     */
+    private class FlyweightMessage implements LogEntry.LazyMessage {
+        private final ByteLineState decodeState = new ByteLineState();
+        private LogEntry entry;
+        private ByteBuffer[] buffers = new ByteBuffer[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int lines;
+
+        private void firstLine(ByteLineState state) {
+            lines = 0;
+            add(state.buffer, state.nextPosition, state.end);
+            state.nextPosition = state.end;
+        }
+
+        private void addNewLine(ByteLineState state) {
+            add(state.buffer, state.start, state.end);
+        }
+
+        private void add(ByteBuffer buffer, int start, int end) {
+            if (lines == buffers.length) {
+                buffers = Arrays.copyOf(buffers, lines * 2);
+                starts = Arrays.copyOf(starts, lines * 2);
+                ends = Arrays.copyOf(ends, lines * 2);
+            }
+            buffers[lines] = buffer;
+            starts[lines] = start;
+            ends[lines] = end;
+            lines++;
+        }
+
+        private void appendTo(LogEntryBatch batch) {
+            for (int i = 0; i < lines; ++i) {
+                batch.appendLine(buffers[i], starts[i], ends[i], CHARSET);
+            }
+        }
+
+        private String decode(int line) {
+            return decodeState.line(buffers[line], starts[line], ends[line]).decode(starts[line], ends[line]);
+        }
+
+        @Override
+        public final String firstLine() {
+            return decode(0);
+        }
+
+        @Override
+        public final int newLines() {
+            return lines - 1;
+        }
+
+        @Override
+        public final String newLine(int index) {
+            return decode(index + 1);
+        }
+
+        @Override
+        public final boolean firstLineStartsWith(String prefix) {
+            ByteBuffer buffer = buffers[0];
+            int start = starts[0];
+            if (prefix.length() > ends[0] - start) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); ++i) {
+                char c = prefix.charAt(i);
+                if (c >= 0x80) {
+                    //not ASCII
+                    return firstLine().startsWith(prefix);
+                } else if (buffer.get(start + i) != c) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,550 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.SymbolTable;
+import eu.cloudtm.SymbolTable.Symbol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
+import static eu.cloudtm.Util.LINE_SEPARATOR;
+
+/**
+ * A binary sidecar file ({@code <file>.lpcache}) with the parsed entries of a log, so the following analysis of the
+ * same log do not parse the text again.
+ * <p/>
+ * The entries are stored in blocks and, in each block, column-wise: the level, class and thread are dictionary
+ * encoded, the times and line numbers are delta encoded (as variable length integers) and the messages are stored in
+ * a single UTF-8 block. The cache is only used if the log's size, last modified time and a checksum of its first and
+ * last bytes did not change, and if it was parsed with the same {@link Parser#configuration()}, time zone and
+ * charset.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class LogCache {
+
+    public static final String EXTENSION = ".lpcache";
+    private static final long MAGIC = 0x4c50434143484531L; //LPCACHE1
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 4096;
+    private static final int CHECKSUM_BYTES = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private LogCache() {
+    }
+
+    public static File cacheFile(File source) {
+        return new File(source.getPath() + EXTENSION);
+    }
+
+    /**
+     * @return {@code true} if the cache of the {@code source} exists and it is up to date
+     */
+    public static boolean isValid(File source, String configuration) {
+        File cache = cacheFile(source);
+        if (!cache.isFile()) {
+            return false;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+            try {
+                return readHeader(input, source, configuration);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param filter the filter or {@code null} to read all the entries
+     * @return an iterator over the entries in the cache of the {@code source}
+     */
+    public static LogIterator read(File source, LogFilter filter) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile(source)),
+                CHECKSUM_BYTES));
+        input.readLong();
+        input.readInt();
+        input.readLong();
+        input.readLong();
+        input.readLong();
+        input.readUTF();
+        return new CachedLogIterator(input, filter);
+    }
+
+    /**
+     * Writes the cache while the entries are iterated. The cache is only created when all the entries are iterated.
+     *
+     * @param iterator all the entries of the {@code source} (not filtered)
+     * @param filter   the filter or {@code null}. It is applied to the entries returned, not to the entries written.
+     */
+    public static LogIterator write(File source, String configuration, LogIterator iterator, LogFilter filter)
+            throws IOException {
+        File cache = cacheFile(source);
+        File temporary = new File(cache.getPath() + ".tmp");
+        DataOutputStream output;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), CHECKSUM_BYTES));
+        } catch (IOException e) {
+            System.err.println("Cannot create the cache " + cache + ": " + e.getMessage());
+            return filter == null ? iterator : new FilteredLogIterator(iterator, filter);
+        }
+        //if the analysis is interrupted, the incomplete cache is discarded
+        temporary.deleteOnExit();
+        output.writeLong(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(source.length());
+        output.writeLong(source.lastModified());
+        output.writeLong(checksum(source));
+        output.writeUTF(fullConfiguration(configuration));
+        return new CachingLogIterator(iterator, filter, output, temporary, cache);
+    }
+
+    private static boolean readHeader(DataInputStream input, File source, String configuration) throws IOException {
+        return input.readLong() == MAGIC &&
+                input.readInt() == VERSION &&
+                input.readLong() == source.length() &&
+                input.readLong() == source.lastModified() &&
+                input.readLong() == checksum(source) &&
+                input.readUTF().equals(fullConfiguration(configuration));
+    }
+
+    static String fullConfiguration(String configuration) {
+        return configuration + ";" + TimeZone.getDefault().getID() + ";" + Charset.defaultCharset().name();
+    }
+
+    static long checksum(File source) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile file = new RandomAccessFile(source, "r");
+        try {
+            byte[] bytes = new byte[(int) Math.min(CHECKSUM_BYTES, file.length())];
+            file.readFully(bytes);
+            crc.update(bytes);
+            file.seek(file.length() - bytes.length);
+            file.readFully(bytes);
+            crc.update(bytes);
+        } finally {
+            file.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes the entries to the cache while returning the entries accepted by the filter.
+     */
+    private static class CachingLogIterator implements LogIterator {
+        private final LogIterator iterator;
+        private final LogFilter filter;
+        private final DataOutputStream output;
+        private final File temporary;
+        private final File cache;
+        private final Dictionary levels;
+        private final Dictionary classes;
+        private final Dictionary threads;
+        private final long[] times;
+        private final int[] lineNumbers;
+        private final int[] levelIds;
+        private final int[] clazzIds;
+        private final int[] threadIds;
+        private final int[] firstLineLengths;
+        private final int[] messageLengths;
+        private final Block messages;
+        private final Block block;
+        private int size;
+        private long lastTime;
+        private int lastLineNumber;
+        private LogEntry nextEntry;
+        private boolean finished;
+
+        private CachingLogIterator(LogIterator iterator, LogFilter filter, DataOutputStream output, File temporary,
+                                   File cache) {
+            this.iterator = iterator;
+            this.filter = filter;
+            this.output = output;
+            this.temporary = temporary;
+            this.cache = cache;
+            this.levels = new Dictionary();
+            this.classes = new Dictionary();
+            this.threads = new Dictionary();
+            this.times = new long[BLOCK_SIZE];
+            this.lineNumbers = new int[BLOCK_SIZE];
+            this.levelIds = new int[BLOCK_SIZE];
+            this.clazzIds = new int[BLOCK_SIZE];
+            this.threadIds = new int[BLOCK_SIZE];
+            this.firstLineLengths = new int[BLOCK_SIZE];
+            this.messageLengths = new int[BLOCK_SIZE];
+            this.messages = new Block(BLOCK_SIZE * 128);
+            this.block = new Block(BLOCK_SIZE * 16);
+        }
+
+        @Override
+        public final boolean hasNext() throws Exception {
+            while (nextEntry == null && !finished) {
+                if (!iterator.hasNext()) {
+                    finish();
+                    return false;
+                }
+                LogEntry logEntry = iterator.next();
+                add(logEntry);
+                if (filter == null || filter.accept(logEntry)) {
+                    nextEntry = logEntry;
+                }
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public final LogEntry next() throws Exception {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogEntry logEntry = nextEntry;
+            nextEntry = null;
+            return logEntry;
+        }
+
+        private void add(LogEntry logEntry) throws IOException {
+            times[size] = logEntry.time();
+            lineNumbers[size] = logEntry.lineNumber();
+            levelIds[size] = levels.id(LEVELS.symbol(logEntry.levelId()));
+            clazzIds[size] = classes.id(CLASSES.symbol(logEntry.clazzId()));
+            threadIds[size] = threads.id(THREADS.symbol(logEntry.threadId()));
+            int start = messages.length;
+            messages.writeString(logEntry.firstLine());
+            firstLineLengths[size] = messages.length - start;
+            String message = logEntry.message();
+            if (message.length() > logEntry.firstLine().length()) {
+                messages.writeString(message.substring(logEntry.firstLine().length()));
+            }
+            messageLengths[size] = messages.length - start;
+            if (++size == BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            block.length = 0;
+            levels.writeNewSymbols(block);
+            classes.writeNewSymbols(block);
+            threads.writeNewSymbols(block);
+            for (int i = 0; i < size; ++i) {
+                block.writeVarLong(zigZag(times[i] - lastTime));
+                lastTime = times[i];
+            }
+            for (int i = 0; i < size; ++i) {
+                block.writeVarLong(zigZag(lineNumbers[i] - lastLineNumber));
+                lastLineNumber = lineNumbers[i];
+            }
+            writeColumn(levelIds);
+            writeColumn(clazzIds);
+            writeColumn(threadIds);
+            writeColumn(firstLineLengths);
+            writeColumn(messageLengths);
+            output.writeInt(size);
+            output.writeInt(block.length);
+            output.writeInt(messages.length);
+            output.write(block.bytes, 0, block.length);
+            output.write(messages.bytes, 0, messages.length);
+            messages.length = 0;
+            size = 0;
+        }
+
+        private void writeColumn(int[] column) {
+            for (int i = 0; i < size; ++i) {
+                block.writeVarLong(column[i]);
+            }
+        }
+
+        private void finish() throws IOException {
+            finished = true;
+            flush();
+            output.writeInt(0);
+            output.close();
+            if (!cache.delete() && cache.exists() || !temporary.renameTo(cache)) {
+                System.err.println("Cannot create the cache " + cache);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries from the cache. The filter is tested before decoding the message.
+     */
+    private static class CachedLogIterator implements LogIterator {
+        private final DataInputStream input;
+        private final LogFilter filter;
+        private final List<Symbol> levels;
+        private final List<Symbol> classes;
+        private final List<Symbol> threads;
+        private final long[] times;
+        private final int[] lineNumbers;
+        private final int[] levelIds;
+        private final int[] clazzIds;
+        private final int[] threadIds;
+        private final int[] firstLineLengths;
+        private final int[] messageLengths;
+        private final Block block;
+        private Block messages;
+        private ByteBuffer messagesBuffer;
+        private long lastTime;
+        private int lastLineNumber;
+        private int size;
+        private int index;
+        private int messageStart;
+        private LogEntry nextEntry;
+        private boolean finished;
+
+        private CachedLogIterator(DataInputStream input, LogFilter filter) {
+            this.input = input;
+            this.filter = filter;
+            this.levels = new ArrayList<Symbol>();
+            this.classes = new ArrayList<Symbol>();
+            this.threads = new ArrayList<Symbol>();
+            this.times = new long[BLOCK_SIZE];
+            this.lineNumbers = new int[BLOCK_SIZE];
+            this.levelIds = new int[BLOCK_SIZE];
+            this.clazzIds = new int[BLOCK_SIZE];
+            this.threadIds = new int[BLOCK_SIZE];
+            this.firstLineLengths = new int[BLOCK_SIZE];
+            this.messageLengths = new int[BLOCK_SIZE];
+            this.block = new Block(BLOCK_SIZE * 16);
+            this.messages = new Block(BLOCK_SIZE * 128);
+            this.messagesBuffer = ByteBuffer.wrap(messages.bytes);
+        }
+
+        @Override
+        public final boolean hasNext() throws Exception {
+            while (nextEntry == null) {
+                if (index == size && !readBlock()) {
+                    return false;
+                }
+                int i = index++;
+                int start = messageStart;
+                messageStart += messageLengths[i];
+                Symbol level = levels.get(levelIds[i]);
+                Symbol clazz = classes.get(clazzIds[i]);
+                Symbol thread = threads.get(threadIds[i]);
+                if (filter != null && (!filter.accept(times[i], level, clazz, thread) ||
+                        !filter.acceptMessage(messagesBuffer, start, start + firstLineLengths[i], UTF_8))) {
+                    continue;
+                }
+                nextEntry = new LogEntry(lineNumbers[i], times[i], level, clazz, thread,
+                        new String(messages.bytes, start, firstLineLengths[i], UTF_8));
+                if (messageLengths[i] > firstLineLengths[i]) {
+                    //skip the line separator after the first line
+                    int newLinesStart = start + firstLineLengths[i] + LINE_SEPARATOR.length();
+                    nextEntry.addNewLine(new String(messages.bytes, newLinesStart,
+                            start + messageLengths[i] - newLinesStart, UTF_8));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public final LogEntry next() throws Exception {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogEntry logEntry = nextEntry;
+            nextEntry = null;
+            return logEntry;
+        }
+
+        private boolean readBlock() throws IOException {
+            if (finished) {
+                return false;
+            }
+            int entries = input.readInt();
+            if (entries == 0) {
+                finished = true;
+                input.close();
+                return false;
+            }
+            if (entries < 0 || entries > BLOCK_SIZE) {
+                throw new IOException("Corrupted cache block with " + entries + " entries");
+            }
+            int blockLength = input.readInt();
+            int messagesLength = input.readInt();
+            block.read(input, blockLength);
+            if (messagesLength > messages.bytes.length) {
+                messages = new Block(messagesLength);
+                messagesBuffer = ByteBuffer.wrap(messages.bytes);
+            }
+            messages.read(input, messagesLength);
+            readNewSymbols(LEVELS, levels);
+            readNewSymbols(CLASSES, classes);
+            readNewSymbols(THREADS, threads);
+            for (int i = 0; i < entries; ++i) {
+                lastTime += unZigZag(block.readVarLong());
+                times[i] = lastTime;
+            }
+            for (int i = 0; i < entries; ++i) {
+                lastLineNumber += (int) unZigZag(block.readVarLong());
+                lineNumbers[i] = lastLineNumber;
+            }
+            readColumn(levelIds, entries);
+            readColumn(clazzIds, entries);
+            readColumn(threadIds, entries);
+            readColumn(firstLineLengths, entries);
+            readColumn(messageLengths, entries);
+            size = entries;
+            index = 0;
+            messageStart = 0;
+            return true;
+        }
+
+        private void readNewSymbols(SymbolTable table, List<Symbol> symbols) {
+            int count = (int) block.readVarLong();
+            for (int i = 0; i < count; ++i) {
+                int length = (int) block.readVarLong();
+                symbols.add(table.intern(new String(block.bytes, block.position, length, UTF_8)));
+                block.position += length;
+            }
+        }
+
+        private void readColumn(int[] column, int entries) {
+            for (int i = 0; i < entries; ++i) {
+                column[i] = (int) block.readVarLong();
+            }
+        }
+    }
+
+    /**
+     * Maps the process' symbol ids to the ids in the cache, which are assigned in order of appearance.
+     */
+    private static class Dictionary {
+        private final List<Symbol> newSymbols = new ArrayList<Symbol>();
+        private int[] ids = new int[64];
+        private int size;
+
+        private int id(Symbol symbol) {
+            int symbolId = symbol.id();
+            if (symbolId >= ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(symbolId + 1, ids.length * 2));
+            }
+            if (ids[symbolId] == 0) {
+                ids[symbolId] = ++size;
+                newSymbols.add(symbol);
+            }
+            return ids[symbolId] - 1;
+        }
+
+        private void writeNewSymbols(Block block) {
+            block.writeVarLong(newSymbols.size());
+            for (Symbol symbol : newSymbols) {
+                byte[] bytes = symbol.value().getBytes(UTF_8);
+                block.writeVarLong(bytes.length);
+                block.write(bytes, 0, bytes.length);
+            }
+            newSymbols.clear();
+        }
+    }
+
+    /**
+     * A growable byte array, written and read with variable length integers.
+     */
+    static class Block {
+        byte[] bytes;
+        int length;
+        int position;
+
+        Block(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        void writeString(String value) {
+            //ASCII fast path
+            ensureCapacity(value.length());
+            int i = 0;
+            for (; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                bytes[length++] = (byte) c;
+            }
+            if (i < value.length()) {
+                byte[] encoded = value.substring(i).getBytes(UTF_8);
+                write(encoded, 0, encoded.length);
+            }
+        }
+
+        void write(byte[] array, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(array, offset, bytes, length, count);
+            length += count;
+        }
+
+        void read(DataInputStream input, int count) throws IOException {
+            if (count > bytes.length) {
+                bytes = new byte[Math.max(count, bytes.length * 2)];
+            }
+            try {
+                input.readFully(bytes, 0, count);
+            } catch (EOFException e) {
+                throw new IOException("Truncated cache", e);
+            }
+            length = count;
+            position = 0;
+        }
+
+        void ensureCapacity(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+            }
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -1,6 +1,7 @@
 package eu.cloudtm.parser;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogEntryBatch;
 
 /**
  * @author Pedro Ruivo
@@ -12,4 +13,17 @@ public interface LogIterator {
 
     LogEntry next() throws Exception;
 
+    /**
+     * Clears the batch and fills it with the next entries, up to its capacity.
+     *
+     * @return the number of entries in the batch, zero if there are no more entries
+     */
+    default int nextBatch(LogEntryBatch batch) throws Exception {
+        batch.clear();
+        while (!batch.isFull() && hasNext()) {
+            batch.add(next());
+        }
+        return batch.size();
+    }
+
 }
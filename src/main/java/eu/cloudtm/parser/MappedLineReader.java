@@ -0,0 +1,151 @@
+package eu.cloudtm.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Iterates over the lines of a file region by mapping it in large windows. The lines are not copied: after each call
+ * to {@link #nextLine()}, the current line is available in {@link #buffer()} between {@link #lineStart()} (inclusive)
+ * and {@link #lineEnd()} (exclusive), without the line terminator.
+ * <p/>
+ * The line terminators are the same as in {@link java.io.BufferedReader#readLine()}: {@code \n}, {@code \r} or
+ * {@code \r\n}.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class MappedLineReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private final FileChannel channel;
+    private final long end;
+    private int windowSize;
+    private MappedByteBuffer window;
+    private long windowOffset;
+    private int windowLimit;
+    private int position;
+    private int lineStart;
+    private int lineEnd;
+
+    public MappedLineReader(FileChannel channel, long start, long end) throws IOException {
+        this(channel, start, end, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedLineReader(FileChannel channel, long start, long end, int windowSize) throws IOException {
+        if (start < 0 || start > end) {
+            throw new IllegalArgumentException("Invalid region [" + start + "," + end + "[");
+        }
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.channel = channel;
+        this.end = end;
+        this.windowSize = windowSize;
+        this.windowOffset = start;
+        if (start < end) {
+            map(start);
+        }
+    }
+
+    /**
+     * @return {@code true} if a new line was read, {@code false} if the end of the region was reached
+     */
+    public final boolean nextLine() throws IOException {
+        if (window == null || windowOffset + position >= end) {
+            return false;
+        }
+        while (true) {
+            int index = position;
+            while (index < windowLimit) {
+                byte b = window.get(index);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                index++;
+            }
+            boolean lastWindow = windowOffset + windowLimit >= end;
+            if (index < windowLimit) {
+                if (window.get(index) == '\n') {
+                    return line(index, index + 1);
+                } else if (index + 1 < windowLimit) {
+                    return line(index, window.get(index + 1) == '\n' ? index + 2 : index + 1);
+                } else if (lastWindow) {
+                    return line(index, index + 1);
+                }
+                //the \r is the last byte in the window. we need the next byte to know if it is a \r\n
+            } else if (lastWindow) {
+                return line(windowLimit, windowLimit);
+            }
+            remap();
+        }
+    }
+
+    public final ByteBuffer buffer() {
+        return window;
+    }
+
+    public final int lineStart() {
+        return lineStart;
+    }
+
+    public final int lineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * @return the file offset of the current line
+     */
+    public final long lineOffset() {
+        return windowOffset + lineStart;
+    }
+
+    /**
+     * @return the file offset of the next line to be read
+     */
+    public final long position() {
+        return windowOffset + position;
+    }
+
+    public final long end() {
+        return end;
+    }
+
+    private boolean line(int lineEnd, int nextPosition) {
+        this.lineStart = position;
+        this.lineEnd = lineEnd;
+        this.position = nextPosition;
+        return true;
+    }
+
+    private void remap() throws IOException {
+        long offset = windowOffset + position;
+        if (offset == windowOffset) {
+            //the line does not fit in the window
+            if (windowSize > Integer.MAX_VALUE / 2) {
+                throw new IllegalStateException("Line starting at offset " + offset + " is too long");
+            }
+            windowSize *= 2;
+        }
+        map(offset);
+    }
+
+    private void map(long offset) throws IOException {
+        int size = (int) Math.min(end - offset, windowSize);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowOffset = offset;
+        windowLimit = size;
+        position = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedLineReader{" +
+                "windowOffset=" + windowOffset +
+                ", windowLimit=" + windowLimit +
+                ", position=" + position +
+                ", end=" + end +
+                '}';
+    }
+}
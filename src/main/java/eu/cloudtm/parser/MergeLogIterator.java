@@ -0,0 +1,102 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the log entries of multiple logs (for example, one log per node in the cluster) by timestamp. It is a k-way
+ * merge: each log must be sorted by timestamp and the next entry of each log is kept in a heap.
+ * <p/>
+ * Entries with the same timestamp are returned in the order of the logs and each entry is tagged with the source name
+ * of its log (see {@link LogEntry#source()}).
+ * <p/>
+ * The next entry is only known when all the logs have a next entry (or have ended): when following the logs, a log
+ * without new entries blocks the merge (after its last entry is returned).
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class MergeLogIterator implements LogIterator {
+
+    private static final Comparator<Head> HEAD_COMPARATOR = new Comparator<Head>() {
+        @Override
+        public int compare(Head o1, Head o2) {
+            long t1 = o1.entry.time();
+            long t2 = o2.entry.time();
+            if (t1 != t2) {
+                return t1 < t2 ? -1 : 1;
+            }
+            return o1.index < o2.index ? -1 : (o1.index == o2.index ? 0 : 1);
+        }
+    };
+    private final PriorityQueue<Head> heap;
+    private Head consumed;
+
+    public MergeLogIterator(List<String> sources, List<LogIterator> iterators) throws Exception {
+        if (sources.size() != iterators.size()) {
+            throw new IllegalArgumentException("Sources and iterators must have the same size");
+        }
+        heap = new PriorityQueue<Head>(Math.max(1, iterators.size()), HEAD_COMPARATOR);
+        for (int i = 0; i < iterators.size(); ++i) {
+            Head head = new Head(i, sources.get(i), iterators.get(i));
+            if (head.advance()) {
+                heap.add(head);
+            }
+        }
+    }
+
+    @Override
+    public final boolean hasNext() throws Exception {
+        refill();
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public final LogEntry next() throws Exception {
+        refill();
+        Head head = heap.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        //the log is advanced when the next entry is requested, so the entry is not delayed by its log's next entry
+        consumed = head;
+        return head.entry;
+    }
+
+    private void refill() throws Exception {
+        if (consumed != null) {
+            Head head = consumed;
+            consumed = null;
+            if (head.advance()) {
+                heap.add(head);
+            }
+        }
+    }
+
+    private static class Head {
+        private final int index;
+        private final String source;
+        private final LogIterator iterator;
+        private LogEntry entry;
+
+        private Head(int index, String source, LogIterator iterator) {
+            this.index = index;
+            this.source = source;
+            this.iterator = iterator;
+        }
+
+        private boolean advance() throws Exception {
+            if (!iterator.hasNext()) {
+                entry = null;
+                return false;
+            }
+            entry = iterator.next();
+            entry.setSource(source);
+            return true;
+        }
+    }
+}
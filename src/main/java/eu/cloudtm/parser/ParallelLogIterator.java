@@ -0,0 +1,175 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a single log file with multiple threads. The file is split in chunks and each chunk is parsed by a {@link
+ * ForkJoinPool}. The chunk boundaries are moved forward to the beginning of the next log entry (as seen by {@link
+ * RangeParser#isEntryStart(java.nio.ByteBuffer, int, int)}), so that multi-line entries are never split.
+ * <p/>
+ * The entries are returned in the same order as in the file and with the same line number.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class ParallelLogIterator implements LogIterator {
+
+    public static final long DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int BOUNDARY_WINDOW_SIZE = 1024 * 1024;
+    private final RangeParser parser;
+    private final LogFilter filter;
+    private final FileChannel channel;
+    private final long size;
+    private final long chunkSize;
+    private final int maxChunksInFlight;
+    private final ForkJoinPool pool;
+    private final Deque<ForkJoinTask<Chunk>> chunksInFlight;
+    private long nextChunkStart;
+    private Iterator<LogEntry> currentChunk;
+    private int currentChunkLines;
+    private int linesBefore;
+
+    public ParallelLogIterator(RangeParser parser, FileChannel channel, int parallelism) throws IOException {
+        this(parser, channel, parallelism, DEFAULT_CHUNK_SIZE, null);
+    }
+
+    /**
+     * @param filter the filter or {@code null} to parse all the entries
+     */
+    public ParallelLogIterator(RangeParser parser, FileChannel channel, int parallelism, long chunkSize,
+                               LogFilter filter) throws IOException {
+        this(parser, channel, channel.position(), channel.size(), 1, parallelism, chunkSize, filter);
+    }
+
+    /**
+     * Parses only the region between the file offsets {@code start} (inclusive) and {@code end} (exclusive). The
+     * region must start in the first line of a log entry.
+     *
+     * @param firstLineNumber the line number of the line starting at offset {@code start}
+     */
+    public ParallelLogIterator(RangeParser parser, FileChannel channel, long start, long end, int firstLineNumber,
+                               int parallelism, long chunkSize, LogFilter filter) throws IOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.parser = parser;
+        this.filter = filter;
+        this.channel = channel;
+        this.size = end;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = parallelism * 2;
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunksInFlight = new ArrayDeque<ForkJoinTask<Chunk>>(maxChunksInFlight);
+        this.nextChunkStart = start;
+        this.currentChunk = null;
+        this.currentChunkLines = 0;
+        this.linesBefore = firstLineNumber - 1;
+        submitChunks();
+    }
+
+    @Override
+    public final boolean hasNext() throws Exception {
+        while (currentChunk == null || !currentChunk.hasNext()) {
+            if (chunksInFlight.isEmpty()) {
+                pool.shutdown();
+                return false;
+            }
+            linesBefore += currentChunkLines;
+            Chunk chunk = join(chunksInFlight.poll());
+            currentChunk = chunk.entries.iterator();
+            currentChunkLines = chunk.lines;
+            submitChunks();
+        }
+        return true;
+    }
+
+    @Override
+    public final LogEntry next() throws Exception {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LogEntry entry = currentChunk.next();
+        entry.shiftLineNumber(linesBefore);
+        return entry;
+    }
+
+    private void submitChunks() throws IOException {
+        while (chunksInFlight.size() < maxChunksInFlight && nextChunkStart < size) {
+            final long start = nextChunkStart;
+            final long end = nextEntryStart(parser, channel, start + chunkSize, size);
+            chunksInFlight.add(pool.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws Exception {
+                    return parseChunk(start, end);
+                }
+            }));
+            nextChunkStart = end;
+        }
+    }
+
+    private Chunk parseChunk(long start, long end) throws Exception {
+        RangeParser.RangeLogIterator iterator = parser.parse(channel, start, end, 1, filter);
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        while (iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+        return new Chunk(entries, iterator.linesRead());
+    }
+
+    /**
+     * @return the offset of the first log entry starting at or after {@code offset}, or {@code size} if there is none
+     */
+    static long nextEntryStart(RangeParser parser, FileChannel channel, long offset, long size) throws IOException {
+        if (offset >= size) {
+            return size;
+        }
+        //start one byte before to find out if offset is already in the beginning of a line
+        MappedLineReader reader = new MappedLineReader(channel, offset - 1, size, BOUNDARY_WINDOW_SIZE);
+        reader.nextLine(); //skip the (partial) line containing offset - 1
+        while (reader.nextLine()) {
+            if (parser.isEntryStart(reader.buffer(), reader.lineStart(), reader.lineEnd())) {
+                return reader.lineOffset();
+            }
+        }
+        return size;
+    }
+
+    private static Chunk join(ForkJoinTask<Chunk> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static class Chunk {
+        private final List<LogEntry> entries;
+        private final int lines;
+
+        private Chunk(List<LogEntry> entries, int lines) {
+            this.entries = entries;
+            this.lines = lines;
+        }
+    }
+}
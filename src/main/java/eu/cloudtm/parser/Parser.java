@@ -1,6 +1,7 @@
 package eu.cloudtm.parser;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
 
 import java.io.InputStream;
 import java.util.Iterator;
@@ -13,4 +14,23 @@ public interface Parser {
 
     LogIterator parse(InputStream stream) throws Exception;
 
+    /**
+     * Parses only the entries accepted by the filter. Parsers should override it to test the filter before building
+     * the entries. By default, the entries are built and then filtered.
+     *
+     * @param filter the filter or {@code null} to parse all the entries
+     */
+    default LogIterator parse(InputStream stream, LogFilter filter) throws Exception {
+        LogIterator iterator = parse(stream);
+        return filter == null ? iterator : new FilteredLogIterator(iterator, filter);
+    }
+
+    /**
+     * @return the parser and its configuration. A log is only read from its {@link LogCache} if it was parsed with the
+     *         same configuration.
+     */
+    default String configuration() {
+        return getClass().getName();
+    }
+
 }
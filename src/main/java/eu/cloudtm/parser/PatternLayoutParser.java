@@ -0,0 +1,543 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+import eu.cloudtm.LogFilter;
+import eu.cloudtm.SymbolTable;
+import eu.cloudtm.SymbolTable.Symbol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
+import static eu.cloudtm.parser.TimestampDecoder.INVALID;
+
+/**
+ * A {@link Parser} configured by a log4j/JBoss logging pattern layout, set in the {@code pattern.layout} system
+ * property. For example, {@code %d{HH:mm:ss,SSS} %-5p [%c] (%t) %m%n}.
+ * <p/>
+ * The pattern is compiled once into a plan: the literal text before the first field followed by a sequence of fields,
+ * each one with its type and the literal text that ends it. Each line is parsed by running the plan, without any
+ * knowledge about the log format. A line that does not match the plan is a continuation of the previous log entry.
+ * <p/>
+ * The conversions supported are {@code %d} (the {@code yyyy-MM-dd} and {@code HH:mm:ss,SSS} patterns are decoded by
+ * {@link TimestampDecoder}, any other pattern uses a slower {@link SimpleDateFormat}), {@code %r}, {@code %p}, {@code
+ * %c}, {@code %C}, {@code %t}, {@code %m}, {@code %n} and {@code %%}. The conversions {@code %x}, {@code %X}, {@code
+ * %M}, {@code %L}, {@code %F} and {@code %l} are parsed and ignored. Two conversions must be separated by some literal
+ * text.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class PatternLayoutParser implements Parser {
+
+    public static final String DEFAULT_PATTERN = "%d{HH:mm:ss,SSS} %-5p [%c] (%t) %m%n";
+    private static final String PATTERN_PROPERTY = "pattern.layout";
+    private static final TimestampDecoder TIMESTAMP_DECODER = new TimestampDecoder();
+    private static final Symbol EMPTY_LEVEL = LEVELS.intern("");
+    private static final Symbol EMPTY_CLASS = CLASSES.intern("");
+    private static final Symbol EMPTY_THREAD = THREADS.intern("");
+    //a line that starts an entry not accepted by the filter
+    private static final LogEntry REJECTED = new LogEntry(0, 0, EMPTY_LEVEL, EMPTY_CLASS, EMPTY_THREAD, "");
+    private final String pattern;
+    private final String prefix;
+    private final Field[] plan;
+    private final boolean hasDate;
+
+    public PatternLayoutParser() {
+        this(patternFromProperty());
+    }
+
+    public PatternLayoutParser(String pattern) {
+        Compiler compiler = new Compiler(pattern);
+        compiler.compile();
+        this.pattern = pattern;
+        this.prefix = compiler.prefix;
+        this.plan = compiler.fields.toArray(new Field[compiler.fields.size()]);
+        boolean date = false;
+        for (Field field : plan) {
+            date |= field.type == FieldType.DATE;
+        }
+        this.hasDate = date;
+    }
+
+    @Override
+    public final LogIterator parse(InputStream inputStream) throws Exception {
+        return parse(inputStream, null);
+    }
+
+    /**
+     * The filter is tested after running the plan, before creating the entry.
+     */
+    @Override
+    public final LogIterator parse(InputStream inputStream, LogFilter filter) throws Exception {
+        return new LogEntryIterator(inputStream, filter);
+    }
+
+    @Override
+    public final String configuration() {
+        return getClass().getName() + "[" + pattern + "]";
+    }
+
+    private static String patternFromProperty() {
+        String pattern = System.getProperty(PATTERN_PROPERTY);
+        if (pattern == null) {
+            System.err.println("Pattern is not specified. Using " + DEFAULT_PATTERN);
+            return DEFAULT_PATTERN;
+        }
+        return pattern;
+    }
+
+    private static enum FieldType {
+        DATE, TIME, DATE_FORMAT, TIMESTAMP, LEVEL, CATEGORY, THREAD, MESSAGE, IGNORE
+    }
+
+    private static final class Field {
+        private final FieldType type;
+        private final int minWidth;
+        private final ThreadLocal<DateFormat> dateFormat;
+        private final int spacesInDate;
+        private final boolean balanced;
+        private final char open;
+        private final char close;
+        private String terminator;
+        private boolean last;
+
+        private Field(FieldType type, int minWidth, final String datePattern, String literalBefore) {
+            this.type = type;
+            this.minWidth = minWidth;
+            if (datePattern == null) {
+                dateFormat = null;
+                spacesInDate = 0;
+            } else {
+                dateFormat = new ThreadLocal<DateFormat>() {
+                    @Override
+                    protected DateFormat initialValue() {
+                        return new SimpleDateFormat(datePattern);
+                    }
+                };
+                int spaces = 0;
+                for (int i = 0; i < datePattern.length(); ++i) {
+                    if (datePattern.charAt(i) == ' ') {
+                        spaces++;
+                    }
+                }
+                spacesInDate = spaces;
+            }
+            //thread names are usually between parenthesis and they can contain parenthesis too
+            open = literalBefore.isEmpty() ? 0 : literalBefore.charAt(literalBefore.length() - 1);
+            close = open == '(' ? ')' : (open == '[' ? ']' : 0);
+            balanced = type == FieldType.THREAD && close != 0;
+        }
+
+        /**
+         * @return the end (exclusive) of this field in the line or -1 if the line does not match
+         */
+        private int end(String line, int start) {
+            int length = line.length();
+            if (terminator == null) {
+                return length;
+            }
+            if (balanced && terminator.charAt(0) == close) {
+                int level = 0;
+                for (int index = start; index < length; ++index) {
+                    char c = line.charAt(index);
+                    if (c == close && level == 0) {
+                        return line.startsWith(terminator, index) ? index : -1;
+                    } else if (c == open) {
+                        level++;
+                    } else if (c == close) {
+                        level--;
+                    }
+                }
+                return -1;
+            }
+            int from = Math.min(start + minWidth, length);
+            for (int i = 0; i < spacesInDate && from >= 0; ++i) {
+                from = line.indexOf(' ', from) + 1;
+                if (from == 0) {
+                    return -1;
+                }
+            }
+            return last ? line.lastIndexOf(terminator) : line.indexOf(terminator, from);
+        }
+
+        private int next(int end, int length) {
+            return terminator == null ? length : end + terminator.length();
+        }
+    }
+
+    private static final class Compiler {
+        private final String pattern;
+        private final List<Field> fields;
+        private final StringBuilder literal;
+        private String prefix;
+        private FieldType pendingType;
+        private int pendingWidth;
+        private String pendingDatePattern;
+        private String pendingLiteralBefore;
+
+        private Compiler(String pattern) {
+            if (pattern == null || pattern.isEmpty()) {
+                throw new IllegalArgumentException("Pattern cannot be empty");
+            }
+            this.pattern = pattern;
+            this.fields = new ArrayList<Field>();
+            this.literal = new StringBuilder();
+        }
+
+        private void compile() {
+            int length = pattern.length();
+            int i = 0;
+            while (i < length) {
+                char c = pattern.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i >= length) {
+                    throw new IllegalArgumentException("Pattern cannot end with %: " + pattern);
+                }
+                if (pattern.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+                //format modifiers: [-][minWidth][.maxWidth]
+                if (pattern.charAt(i) == '-') {
+                    i++;
+                }
+                int minWidth = 0;
+                while (i < length && Character.isDigit(pattern.charAt(i))) {
+                    minWidth = minWidth * 10 + (pattern.charAt(i++) - '0');
+                }
+                if (i < length && pattern.charAt(i) == '.') {
+                    i++;
+                    while (i < length && Character.isDigit(pattern.charAt(i))) {
+                        i++;
+                    }
+                }
+                if (i >= length) {
+                    throw new IllegalArgumentException("Missing conversion character: " + pattern);
+                }
+                char conversion = pattern.charAt(i++);
+                String option = null;
+                if (i < length && pattern.charAt(i) == '{') {
+                    int end = pattern.indexOf('}', i);
+                    if (end == -1) {
+                        throw new IllegalArgumentException("Missing } in " + pattern);
+                    }
+                    option = pattern.substring(i + 1, end);
+                    i = end + 1;
+                }
+                switch (conversion) {
+                    case 'n':
+                        //end of line
+                        i = length;
+                        break;
+                    case 'd':
+                        addDate(option);
+                        break;
+                    case 'r':
+                        addField(FieldType.TIMESTAMP, minWidth, null);
+                        break;
+                    case 'p':
+                        addField(FieldType.LEVEL, minWidth, null);
+                        break;
+                    case 'c':
+                    case 'C':
+                        addField(FieldType.CATEGORY, minWidth, null);
+                        break;
+                    case 't':
+                        addField(FieldType.THREAD, minWidth, null);
+                        break;
+                    case 'm':
+                        addField(FieldType.MESSAGE, minWidth, null);
+                        break;
+                    case 'x':
+                    case 'X':
+                    case 'M':
+                    case 'L':
+                    case 'F':
+                    case 'l':
+                        addField(FieldType.IGNORE, minWidth, null);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported conversion %" + conversion + " in " + pattern);
+                }
+            }
+            if (pendingType == null) {
+                throw new IllegalArgumentException("Pattern without conversions: " + pattern);
+            }
+            Field lastField = newPendingField(literal.length() == 0 ? null : literal.toString());
+            lastField.last = true;
+            fields.add(lastField);
+        }
+
+        private void addDate(String option) {
+            String datePattern;
+            if (option == null || "ISO8601".equals(option)) {
+                datePattern = "yyyy-MM-dd HH:mm:ss,SSS";
+            } else if ("ABSOLUTE".equals(option)) {
+                datePattern = "HH:mm:ss,SSS";
+            } else if ("DATE".equals(option)) {
+                datePattern = "dd MMM yyyy HH:mm:ss,SSS";
+            } else {
+                datePattern = option;
+            }
+            if (!isDecodable(datePattern)) {
+                addField(FieldType.DATE_FORMAT, 0, datePattern);
+                return;
+            }
+            int i = 0;
+            while (i < datePattern.length()) {
+                if (datePattern.startsWith("yyyy-MM-dd", i)) {
+                    addField(FieldType.DATE, 0, null);
+                    i += "yyyy-MM-dd".length();
+                } else if (datePattern.startsWith("HH:mm:ss,SSS", i)) {
+                    addField(FieldType.TIME, 0, null);
+                    i += "HH:mm:ss,SSS".length();
+                } else {
+                    literal.append(datePattern.charAt(i++));
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the date pattern is made only of {@code yyyy-MM-dd}, {@code HH:mm:ss,SSS} and
+         *         non-letter literals
+         */
+        private boolean isDecodable(String datePattern) {
+            String remaining = datePattern.replace("yyyy-MM-dd", "").replace("HH:mm:ss,SSS", "");
+            for (int i = 0; i < remaining.length(); ++i) {
+                char c = remaining.charAt(i);
+                if (Character.isLetter(c) || c == '\'') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void addField(FieldType type, int minWidth, String datePattern) {
+            if (pendingType == null) {
+                prefix = literal.toString();
+                literal.setLength(0);
+            } else {
+                if (literal.length() == 0) {
+                    throw new IllegalArgumentException("Conversions must be separated by some text: " + pattern);
+                }
+                fields.add(newPendingField(literal.toString()));
+            }
+            pendingLiteralBefore = fields.isEmpty() ? prefix : fields.get(fields.size() - 1).terminator;
+            pendingType = type;
+            pendingWidth = minWidth;
+            pendingDatePattern = datePattern;
+        }
+
+        private Field newPendingField(String terminator) {
+            Field field = new Field(pendingType, pendingWidth, pendingDatePattern, pendingLiteralBefore);
+            field.terminator = terminator;
+            literal.setLength(0);
+            return field;
+        }
+    }
+
+    private class LogEntryIterator implements LogIterator {
+
+        private final BufferedReader bufferedReader;
+        private final LogFilter filter;
+        private char[] timestamp;
+        private String currentLine;
+        private int lineNumber;
+        private LogEntry nextEntry = null;
+        private LogEntry pendingEntry = null;
+        private boolean fetched = false;
+
+        private LogEntryIterator(InputStream inputStream, LogFilter filter) throws IOException {
+            this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+            this.filter = filter;
+            this.timestamp = new char[32];
+            this.lineNumber = 0;
+            nextLine();
+        }
+
+        @Override
+        public final boolean hasNext() throws Exception {
+            if (!fetched) {
+                nextEntry();
+                fetched = true;
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public final LogEntry next() throws Exception {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            return nextEntry;
+        }
+
+        private void nextEntry() throws IOException {
+            LogEntry entry = pendingEntry;
+            pendingEntry = null;
+            //the lines of the rejected entries are skipped
+            while ((entry == null || entry == REJECTED) && currentLine != null) {
+                entry = parseLine(lineNumber, currentLine);
+                nextLine();
+            }
+            if (entry == REJECTED) {
+                entry = null;
+            }
+            while (entry != null && currentLine != null) {
+                if (!currentLine.isEmpty()) {
+                    LogEntry next = parseLine(lineNumber, currentLine);
+                    if (next != null) {
+                        pendingEntry = next == REJECTED ? null : next;
+                        nextLine();
+                        break;
+                    }
+                    entry.addNewLine(currentLine);
+                }
+                nextLine();
+            }
+            nextEntry = entry;
+        }
+
+        private void nextLine() throws IOException {
+            currentLine = bufferedReader.readLine();
+            lineNumber++;
+        }
+
+        /**
+         * @return the log entry, {@code null} if the line does not match the pattern or {@link #REJECTED} if the entry
+         *         is not accepted by the filter
+         */
+        private LogEntry parseLine(int lineNumber, String line) {
+            if (!line.startsWith(prefix)) {
+                return null;
+            }
+            int length = line.length();
+            int position = prefix.length();
+            long time = 0;
+            Symbol level = EMPTY_LEVEL;
+            Symbol clazz = EMPTY_CLASS;
+            Symbol thread = EMPTY_THREAD;
+            int messageStart = 0;
+            int messageEnd = 0;
+            boolean trimMessage = false;
+            for (Field field : plan) {
+                int end = field.end(line, position);
+                if (end < position) {
+                    return null;
+                }
+                switch (field.type) {
+                    case DATE:
+                        long date = TIMESTAMP_DECODER.decodeDate(chars(line, position, end), 0, end - position);
+                        if (date == INVALID) {
+                            return null;
+                        }
+                        time += date;
+                        break;
+                    case TIME:
+                        char[] chars = chars(line, position, end);
+                        long timeOfDay = hasDate ?
+                                TIMESTAMP_DECODER.decodeTimeOfDay(chars, 0, end - position) :
+                                TIMESTAMP_DECODER.decodeTime(chars, 0, end - position);
+                        if (timeOfDay == INVALID) {
+                            return null;
+                        }
+                        time += timeOfDay;
+                        break;
+                    case DATE_FORMAT:
+                        try {
+                            time += field.dateFormat.get().parse(line.substring(position, end)).getTime();
+                        } catch (ParseException e) {
+                            return null;
+                        }
+                        break;
+                    case TIMESTAMP:
+                        long value = parseLong(line, position, end);
+                        if (value == INVALID) {
+                            return null;
+                        }
+                        time += value;
+                        break;
+                    case LEVEL:
+                        level = symbol(LEVELS, true, line, position, end);
+                        break;
+                    case CATEGORY:
+                        clazz = symbol(CLASSES, field.minWidth > 0, line, position, end);
+                        break;
+                    case THREAD:
+                        thread = symbol(THREADS, field.minWidth > 0, line, position, end);
+                        break;
+                    case MESSAGE:
+                        messageStart = position;
+                        messageEnd = end;
+                        trimMessage = field.minWidth > 0;
+                        break;
+                    default:
+                        break;
+                }
+                position = field.next(end, length);
+            }
+            if (filter != null && !filter.accept(time, level, clazz, thread)) {
+                return REJECTED;
+            }
+            String message = line.substring(messageStart, messageEnd);
+            if (trimMessage) {
+                message = message.trim();
+            }
+            if (filter != null && !filter.acceptMessage(message)) {
+                return REJECTED;
+            }
+            return new LogEntry(lineNumber, time, level, clazz, thread, message);
+        }
+
+        private Symbol symbol(SymbolTable table, boolean trim, String line, int start, int end) {
+            if (trim) {
+                while (start < end && line.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && line.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+            }
+            return table.intern(line, start, end);
+        }
+
+        private char[] chars(String line, int start, int end) {
+            if (timestamp.length < end - start) {
+                timestamp = new char[end - start];
+            }
+            line.getChars(start, end, timestamp, 0);
+            return timestamp;
+        }
+
+        private long parseLong(String line, int start, int end) {
+            if (start == end || end - start > 18) {
+                return INVALID;
+            }
+            long value = 0;
+            for (int i = start; i < end; ++i) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    return INVALID;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogFilter;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Parser} able to parse any region of a log file, as long as the region starts in the first line of a log
+ * entry.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public interface RangeParser extends Parser {
+
+    /**
+     * @return {@code true} if the line between {@code start} (inclusive) and {@code end} (exclusive) is the first line
+     *         of a log entry, {@code false} if it is a continuation line (or it is not a log entry at all)
+     */
+    boolean isEntryStart(ByteBuffer buffer, int start, int end);
+
+    /**
+     * Parses the log entries between the file offsets {@code start} (inclusive) and {@code end} (exclusive).
+     *
+     * @param firstLineNumber the line number of the line starting at offset {@code start}
+     * @param filter          the filter or {@code null} to parse all the entries
+     */
+    RangeLogIterator parse(FileChannel channel, long start, long end, int firstLineNumber, LogFilter filter)
+            throws Exception;
+
+    public static interface RangeLogIterator extends LogIterator {
+
+        /**
+         * @return the number of lines read from the region so far
+         */
+        int linesRead();
+
+    }
+
+}
@@ -0,0 +1,103 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses a log in a background thread. The parsed entries are handed over in batches through a bounded queue, so the
+ * parser can be ahead of the consumer by (at most) {@code queueSize} batches.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class ReadAheadLogIterator implements LogIterator {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+    private static final List<LogEntry> END = Collections.emptyList();
+    private final BlockingQueue<List<LogEntry>> queue;
+    private Iterator<LogEntry> currentBatch;
+    private volatile Exception exception;
+    private boolean finished;
+
+    public ReadAheadLogIterator(String name, LogIterator iterator) {
+        this(name, iterator, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+    public ReadAheadLogIterator(String name, final LogIterator iterator, final int batchSize, int queueSize) {
+        this.queue = new ArrayBlockingQueue<List<LogEntry>>(queueSize);
+        this.currentBatch = null;
+        this.finished = false;
+        Thread thread = new Thread("read-ahead-" + name) {
+            @Override
+            public void run() {
+                readAhead(iterator, batchSize);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public final boolean hasNext() throws Exception {
+        while (currentBatch == null || !currentBatch.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            List<LogEntry> batch = queue.take();
+            if (batch == END) {
+                finished = true;
+                if (exception != null) {
+                    throw exception;
+                }
+                return false;
+            }
+            currentBatch = batch.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public final LogEntry next() throws Exception {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    private void readAhead(LogIterator iterator, int batchSize) {
+        try {
+            List<LogEntry> batch = new ArrayList<LogEntry>(batchSize);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next().detach());
+                if (batch.size() == batchSize) {
+                    queue.put(batch);
+                    batch = new ArrayList<LogEntry>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exception = e;
+        } catch (Exception e) {
+            exception = e;
+        } catch (Throwable throwable) {
+            exception = new Exception(throwable);
+        } finally {
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
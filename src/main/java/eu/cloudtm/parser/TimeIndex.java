@@ -0,0 +1,297 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogFilter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import static eu.cloudtm.parser.TimestampDecoder.INVALID;
+
+/**
+ * A sparse index of a log file: the time, file offset and line number of one log entry every {@code interval} bytes.
+ * It is used to parse only the region of the file with the entries of a time window, assuming that the entries are
+ * in time order (as they are written).
+ * <p/>
+ * The index is built by reading the lines (without parsing the entries) and it is saved in a sidecar file ({@code
+ * <file>.lpindex}), reused while the log file does not change.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class TimeIndex {
+
+    public static final String EXTENSION = ".lpindex";
+    public static final int DEFAULT_INTERVAL = 256 * 1024;
+    private static final long MAGIC = 0x4c50494e44455831L; //LPINDEX1
+    private static final int VERSION = 1;
+    private static final TimestampDecoder TIMESTAMP_DECODER = new TimestampDecoder();
+    private final long[] offsets;
+    private final int[] lineNumbers;
+    private final long[] times;
+    private final int size;
+    private final long fileSize;
+
+    private TimeIndex(long[] offsets, int[] lineNumbers, long[] times, int size, long fileSize) {
+        this.offsets = offsets;
+        this.lineNumbers = lineNumbers;
+        this.times = times;
+        this.size = size;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * @return the index saved for the {@code source} if it is up to date, otherwise a new index (that is saved)
+     */
+    public static TimeIndex load(File source, RangeParser parser, FileChannel channel) throws Exception {
+        File file = new File(source.getPath() + EXTENSION);
+        String configuration = LogCache.fullConfiguration(parser.configuration());
+        if (file.isFile()) {
+            try {
+                TimeIndex index = read(file, source, configuration);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                //rebuild it
+            }
+        }
+        TimeIndex index = build(parser, channel, DEFAULT_INTERVAL);
+        try {
+            index.write(file, source, configuration);
+        } catch (IOException e) {
+            System.err.println("Cannot save the time index " + file + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    public static TimeIndex build(RangeParser parser, FileChannel channel, int interval) throws Exception {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        long fileSize = channel.size();
+        long[] offsets = new long[64];
+        int[] lineNumbers = new int[64];
+        long[] times = new long[64];
+        int size = 0;
+        MappedLineReader reader = new MappedLineReader(channel, 0, fileSize);
+        int lineNumber = 0;
+        long nextOffset = 0;
+        while (reader.nextLine()) {
+            lineNumber++;
+            long offset = reader.lineOffset();
+            if (offset < nextOffset || !parser.isEntryStart(reader.buffer(), reader.lineStart(), reader.lineEnd())) {
+                continue;
+            }
+            long time = entryTime(parser, channel, offset, Math.min(fileSize, offset + interval), lineNumber);
+            if (time == INVALID) {
+                continue;
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            offsets[size] = offset;
+            lineNumbers[size] = lineNumber;
+            times[size] = time;
+            size++;
+            nextOffset = offset + interval;
+        }
+        return new TimeIndex(offsets, lineNumbers, times, size, fileSize);
+    }
+
+    /**
+     * Parses the entries with time in the {@code filter} time range. Only the region of the file between the last
+     * indexed entry before {@link LogFilter#from()} and the first indexed entry after {@link LogFilter#to()} is read.
+     */
+    public final RangeParser.RangeLogIterator parse(RangeParser parser, FileChannel channel, LogFilter filter)
+            throws Exception {
+        int first = startIndex(filter.from());
+        return parser.parse(channel, startOffset(first), endOffset(filter.to()), startLineNumber(first), filter);
+    }
+
+    /**
+     * @return the index of the last entry with time before {@code from}, or -1 if there is none
+     */
+    public final int startIndex(long from) {
+        //first entry with time >= from
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return the file offset where to start parsing, for the {@link #startIndex(long)}
+     */
+    public final long startOffset(int startIndex) {
+        return startIndex < 0 ? 0 : offsets[startIndex];
+    }
+
+    /**
+     * @return the line number of the {@link #startOffset(int)}
+     */
+    public final int startLineNumber(int startIndex) {
+        return startIndex < 0 ? 1 : lineNumbers[startIndex];
+    }
+
+    /**
+     * @return the offset of the first entry with time after or equal to {@code to}, or the file size if there is none
+     */
+    public final long endOffset(long to) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < to) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == size ? fileSize : offsets[low];
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    /**
+     * Parses a time given by the user: milliseconds since the epoch, {@code yyyy-MM-dd HH:mm[:ss[,SSS]]} or {@code
+     * HH:mm[:ss[,SSS]]}. A time without date is in the same day as the {@code reference} time (for example, the first
+     * entry of the log).
+     *
+     * @param reference a time in the log or {@link TimestampDecoder#INVALID} if it is unknown
+     */
+    public static long parseTime(String value, long reference) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("Invalid time '" + value + "'");
+        }
+        boolean digits = true;
+        for (int i = 0; i < trimmed.length() && digits; ++i) {
+            digits = Character.isDigit(trimmed.charAt(i));
+        }
+        if (digits) {
+            return Long.parseLong(trimmed);
+        }
+        String date = null;
+        String time = trimmed;
+        int separator = Math.max(trimmed.indexOf(' '), trimmed.indexOf('T'));
+        if (separator != -1) {
+            date = trimmed.substring(0, separator);
+            time = trimmed.substring(separator + 1).trim();
+        } else if (trimmed.indexOf('-') != -1) {
+            date = trimmed;
+            time = "00:00";
+        }
+        time = time.replace('.', ',');
+        int colons = 0;
+        for (int i = 0; i < time.length(); ++i) {
+            if (time.charAt(i) == ':') {
+                colons++;
+            }
+        }
+        if (colons == 1) {
+            time = time + ":00";
+        }
+        if (time.indexOf(',') == -1) {
+            time = time + ",000";
+        }
+        char[] chars = time.toCharArray();
+        long result;
+        if (date != null) {
+            char[] dateChars = date.toCharArray();
+            long midnight = TIMESTAMP_DECODER.decodeDate(dateChars, 0, dateChars.length);
+            long timeOfDay = TIMESTAMP_DECODER.decodeTimeOfDay(chars, 0, chars.length);
+            result = midnight == INVALID || timeOfDay == INVALID ? INVALID : midnight + timeOfDay;
+        } else if (reference != INVALID) {
+            long timeOfDay = TIMESTAMP_DECODER.decodeTimeOfDay(chars, 0, chars.length);
+            result = timeOfDay == INVALID ? INVALID : midnight(reference) + timeOfDay;
+        } else {
+            //as the logs without date
+            result = TIMESTAMP_DECODER.decodeTime(chars, 0, chars.length);
+        }
+        if (result == INVALID) {
+            throw new IllegalArgumentException("Invalid time '" + value + "'");
+        }
+        return result;
+    }
+
+    private static long midnight(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long entryTime(RangeParser parser, FileChannel channel, long start, long end, int lineNumber)
+            throws Exception {
+        LogIterator iterator = parser.parse(channel, start, end, lineNumber, null);
+        return iterator.hasNext() ? iterator.next().time() : INVALID;
+    }
+
+    private static TimeIndex read(File file, File source, String configuration) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readLong() != MAGIC || input.readInt() != VERSION || input.readLong() != source.length() ||
+                    input.readLong() != source.lastModified() || input.readLong() != LogCache.checksum(source) ||
+                    !input.readUTF().equals(configuration)) {
+                return null;
+            }
+            int size = input.readInt();
+            long[] offsets = new long[size];
+            int[] lineNumbers = new int[size];
+            long[] times = new long[size];
+            for (int i = 0; i < size; ++i) {
+                offsets[i] = input.readLong();
+                lineNumbers[i] = input.readInt();
+                times[i] = input.readLong();
+            }
+            return new TimeIndex(offsets, lineNumbers, times, size, source.length());
+        } finally {
+            input.close();
+        }
+    }
+
+    private void write(File file, File source, String configuration) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeLong(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(source.length());
+            output.writeLong(source.lastModified());
+            output.writeLong(LogCache.checksum(source));
+            output.writeUTF(configuration);
+            output.writeInt(size);
+            for (int i = 0; i < size; ++i) {
+                output.writeLong(offsets[i]);
+                output.writeInt(lineNumbers[i]);
+                output.writeLong(times[i]);
+            }
+        } finally {
+            output.close();
+        }
+        if (!file.delete() && file.exists() || !temporary.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package eu.cloudtm.parser;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Decodes the {@code yyyy-MM-dd} dates and the {@code HH:mm:ss,SSS} times of the log lines directly from the char or
+ * byte buffer, without creating any object.
+ * <p/>
+ * The values returned are the same as {@link java.text.SimpleDateFormat#parse(String)} with the same pattern and time
+ * zone: the date is the local midnight of that day and the time is the local time in 1970-01-01. Each field can have
+ * any number of digits and the content after the last field is ignored. Signed fields are not supported.
+ * <p/>
+ * The epoch of the last decoded day is cached, so the calendar computation only happens when the day changes. This
+ * class is thread safe.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class TimestampDecoder {
+
+    /**
+     * returned when the date or the time cannot be decoded.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+    private static final int MAX_DIGITS = 9;
+    private static final long[] FIELD_MILLIS = {60 * 60 * 1000, 60 * 1000, 1000, 1};
+    private final TimeZone timeZone;
+    private final long timeBase;
+    private volatile Day lastDay;
+
+    public TimestampDecoder() {
+        this(TimeZone.getDefault());
+    }
+
+    public TimestampDecoder(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.timeBase = midnight(1970, 1, 1);
+        this.lastDay = new Day(packDay(1970, 1, 1), timeBase);
+    }
+
+    /**
+     * @return the local midnight of the {@code yyyy-MM-dd} date between {@code start} and {@code end} or {@link
+     *         #INVALID}
+     */
+    public final long decodeDate(char[] array, int start, int end) {
+        int year = 0, month = 0, day = 0;
+        int index = start;
+        for (int field = 0; field < 3; ++field) {
+            if (field > 0) {
+                if (index >= end || array[index] != '-') {
+                    return INVALID;
+                }
+                index++;
+            }
+            int value = 0;
+            int digits = 0;
+            char c;
+            while (index < end && (c = array[index]) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                index++;
+                if (++digits > MAX_DIGITS) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0) {
+                return INVALID;
+            }
+            switch (field) {
+                case 0:
+                    year = value;
+                    break;
+                case 1:
+                    month = value;
+                    break;
+                default:
+                    day = value;
+            }
+        }
+        return day(year, month, day);
+    }
+
+    /**
+     * @see #decodeDate(char[], int, int)
+     */
+    public final long decodeDate(ByteBuffer buffer, int start, int end) {
+        int year = 0, month = 0, day = 0;
+        int index = start;
+        for (int field = 0; field < 3; ++field) {
+            if (field > 0) {
+                if (index >= end || buffer.get(index) != '-') {
+                    return INVALID;
+                }
+                index++;
+            }
+            int value = 0;
+            int digits = 0;
+            byte b;
+            while (index < end && (b = buffer.get(index)) >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                index++;
+                if (++digits > MAX_DIGITS) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0) {
+                return INVALID;
+            }
+            switch (field) {
+                case 0:
+                    year = value;
+                    break;
+                case 1:
+                    month = value;
+                    break;
+                default:
+                    day = value;
+            }
+        }
+        return day(year, month, day);
+    }
+
+    /**
+     * @return the local {@code HH:mm:ss,SSS} time in 1970-01-01, between {@code start} and {@code end}, or {@link
+     *         #INVALID}
+     */
+    public final long decodeTime(char[] array, int start, int end) {
+        long millis = decodeTimeOfDay(array, start, end);
+        return millis == INVALID ? INVALID : timeBase + millis;
+    }
+
+    /**
+     * @see #decodeTime(char[], int, int)
+     */
+    public final long decodeTime(ByteBuffer buffer, int start, int end) {
+        long millis = decodeTimeOfDay(buffer, start, end);
+        return millis == INVALID ? INVALID : timeBase + millis;
+    }
+
+    /**
+     * @return the milliseconds since midnight of the {@code HH:mm:ss,SSS} time between {@code start} and {@code end},
+     *         or {@link #INVALID}. Add it to {@link #decodeDate(char[], int, int)} to obtain the local date and time.
+     */
+    public final long decodeTimeOfDay(char[] array, int start, int end) {
+        long millis = 0;
+        int index = start;
+        for (int field = 0; field < 4; ++field) {
+            if (field > 0) {
+                if (index >= end || array[index] != (field == 3 ? ',' : ':')) {
+                    return INVALID;
+                }
+                index++;
+            }
+            int value = 0;
+            int digits = 0;
+            char c;
+            while (index < end && (c = array[index]) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                index++;
+                if (++digits > MAX_DIGITS) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0) {
+                return INVALID;
+            }
+            millis += value * FIELD_MILLIS[field];
+        }
+        return millis;
+    }
+
+    /**
+     * @see #decodeTimeOfDay(char[], int, int)
+     */
+    public final long decodeTimeOfDay(ByteBuffer buffer, int start, int end) {
+        long millis = 0;
+        int index = start;
+        for (int field = 0; field < 4; ++field) {
+            if (field > 0) {
+                if (index >= end || buffer.get(index) != (field == 3 ? ',' : ':')) {
+                    return INVALID;
+                }
+                index++;
+            }
+            int value = 0;
+            int digits = 0;
+            byte b;
+            while (index < end && (b = buffer.get(index)) >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                index++;
+                if (++digits > MAX_DIGITS) {
+                    return INVALID;
+                }
+            }
+            if (digits == 0) {
+                return INVALID;
+            }
+            millis += value * FIELD_MILLIS[field];
+        }
+        return millis;
+    }
+
+    private long day(int year, int month, int day) {
+        if (month > 0xFFFF || day > 0xFFFF) {
+            //lenient value that does not fit in the key
+            return midnight(year, month, day);
+        }
+        long key = packDay(year, month, day);
+        Day cached = lastDay;
+        if (cached.key == key) {
+            return cached.midnight;
+        }
+        cached = new Day(key, midnight(year, month, day));
+        lastDay = cached;
+        return cached.midnight;
+    }
+
+    private long midnight(int year, int month, int day) {
+        Calendar calendar = new GregorianCalendar(timeZone);
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long packDay(int year, int month, int day) {
+        return ((long) year << 32) | ((long) month << 16) | day;
+    }
+
+    private static class Day {
+        private final long key;
+        private final long midnight;
+
+        private Day(long key, long midnight) {
+            this.key = key;
+            this.midnight = midnight;
+        }
+    }
+}
@@ -0,0 +1,780 @@
+package eu.cloudtm.parser;
+
+import eu.cloudtm.LogEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An inverted index of a log file: for each term (a word of the message, thread or class of an entry), the list of
+ * entries containing it. Each entry is stored as its file offset, line number and length, delta encoded as variable
+ * length integers, so the matching entries are parsed directly from the log file without scanning it.
+ * <p/>
+ * The terms are sequences of letters, digits and {@code _$.-}; terms with dots (like class names) are also split in
+ * their parts. The terms longer than {@value #MAX_TERM_LENGTH} characters (like hex dumps) are not indexed. The search
+ * is case sensitive. The index is saved in a sidecar file ({@code <file>.lptokens}), reused while the log file does
+ * not change.
+ * <p/>
+ * While building, the postings are kept in memory up to the megabytes set in the {@value #MEMORY_PROPERTY} system
+ * property (default is {@value #DEFAULT_MEMORY_MB}); then they are written, sorted by term, to a temporary run file and
+ * the runs are merged in the end. The dictionary of terms stays in the file: every {@value #SAMPLE_INTERVAL}th term
+ * is kept in memory and the search reads only the dictionary block of each term.
+ *
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public final class TokenIndex {
+
+    public static final String EXTENSION = ".lptokens";
+    public static final String MEMORY_PROPERTY = "tokenIndex.memory";
+    private static final long MAGIC = 0x4c50544f4b454e31L; //LPTOKEN1
+    private static final int VERSION = 2;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 1024;
+    private static final int DEFAULT_MEMORY_MB = 64;
+    private static final int SAMPLE_INTERVAL = 128;
+    //approximate heap size of a new term (map entry, string and postings), without its characters
+    private static final int TERM_OVERHEAD = 200;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File file;
+    private final int entries;
+    //every SAMPLE_INTERVAL-th term of the dictionary and the offset of its dictionary entry
+    private final String[] sampleTerms;
+    private final long[] sampleOffsets;
+    private final long dictionaryEnd;
+
+    private TokenIndex(File file, int entries, String[] sampleTerms, long[] sampleOffsets, long dictionaryEnd) {
+        this.file = file;
+        this.entries = entries;
+        this.sampleTerms = sampleTerms;
+        this.sampleOffsets = sampleOffsets;
+        this.dictionaryEnd = dictionaryEnd;
+    }
+
+    /**
+     * @return the index saved for the {@code source} if it is up to date, otherwise a new index (that is saved)
+     */
+    public static TokenIndex load(File source, RangeParser parser, FileChannel channel) throws Exception {
+        File file = new File(source.getPath() + EXTENSION);
+        String configuration = LogCache.fullConfiguration(parser.configuration());
+        if (file.isFile()) {
+            try {
+                TokenIndex index = open(file, source, configuration);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                //rebuild it
+            }
+        }
+        build(source, parser, channel, file, configuration);
+        TokenIndex index = open(file, source, configuration);
+        if (index == null) {
+            throw new IOException("Cannot open the index " + file);
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of entries indexed
+     */
+    public final int entries() {
+        return entries;
+    }
+
+    /**
+     * @return the entries whose message, thread or class contains all the {@code words}, in the file order. The words
+     *         are split in terms like the entries (see {@link #queryTerms(String)}) and the entries with all the terms
+     *         are checked for the words
+     * @throws IllegalArgumentException if the words have no term to search
+     */
+    public final LogIterator search(final Collection<String> words, final RangeParser parser,
+                                    final FileChannel channel) throws Exception {
+        TreeSet<String> terms = new TreeSet<String>();
+        for (String word : words) {
+            terms.addAll(queryTerms(word));
+        }
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("The query " + words + " has no term to search: a term has, at least, " +
+                    MIN_TERM_LENGTH + " letters or digits");
+        }
+        final Postings postings = intersect(readPostings(terms));
+        return new LogIterator() {
+            private int index;
+            private LogEntry nextEntry = findNext();
+
+            @Override
+            public boolean hasNext() {
+                return nextEntry != null;
+            }
+
+            @Override
+            public LogEntry next() throws Exception {
+                if (nextEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                LogEntry logEntry = nextEntry;
+                nextEntry = findNext();
+                return logEntry;
+            }
+
+            private LogEntry findNext() throws Exception {
+                while (index < postings.size) {
+                    int i = index++;
+                    LogIterator iterator = parser.parse(channel, postings.offsets[i],
+                            postings.offsets[i] + postings.lengths[i], postings.lineNumbers[i], null);
+                    if (!iterator.hasNext()) {
+                        throw new IllegalStateException("No entry at line " + postings.lineNumbers[i] +
+                                ". Is the index up to date?");
+                    }
+                    LogEntry logEntry = iterator.next();
+                    if (containsAll(logEntry, words)) {
+                        return logEntry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return the terms of the index that an entry containing the {@code word} has: the terms of the word, with the
+     *         terms with dots replaced by their parts (the word may be part of a longer term with dots)
+     */
+    public static Set<String> queryTerms(String word) {
+        Set<String> terms = new HashSet<String>();
+        tokenize(word, terms);
+        Set<String> result = new HashSet<String>();
+        for (String term : terms) {
+            if (term.indexOf('.') == -1) {
+                result.add(term);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the terms of the {@code value} to the {@code terms}.
+     */
+    public static void tokenize(String value, Collection<String> terms) {
+        int start = -1;
+        for (int i = 0; i <= value.length(); ++i) {
+            if (i < value.length() && isTermChar(value.charAt(i))) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                addTerm(value, start, i, terms);
+                start = -1;
+            }
+        }
+    }
+
+    private static void addTerm(String value, int start, int end, Collection<String> terms) {
+        //trim the punctuation, like the dot in the end of a sentence
+        while (start < end && !Character.isLetterOrDigit(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && !Character.isLetterOrDigit(value.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start < MIN_TERM_LENGTH) {
+            return;
+        }
+        if (end - start <= MAX_TERM_LENGTH) {
+            terms.add(value.substring(start, end));
+        }
+        int dot = value.indexOf('.', start);
+        if (dot != -1 && dot < end) {
+            //the parts do not have dots
+            int partStart = start;
+            for (int i = start; i <= end; ++i) {
+                if (i == end || value.charAt(i) == '.') {
+                    addTerm(value, partStart, i, terms);
+                    partStart = i + 1;
+                }
+            }
+        }
+    }
+
+    private static boolean containsAll(LogEntry logEntry, Collection<String> words) {
+        for (String word : words) {
+            if (!logEntry.message().contains(word) && !logEntry.thread().contains(word) &&
+                    !logEntry.clazz().contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTermChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c == '-';
+    }
+
+    private static void build(File source, RangeParser parser, FileChannel channel, File file, String configuration)
+            throws Exception {
+        long size = channel.size();
+        long maxMemory = Long.getLong(MEMORY_PROPERTY, DEFAULT_MEMORY_MB) * 1024 * 1024;
+        if (maxMemory <= 0) {
+            throw new IllegalArgumentException(MEMORY_PROPERTY + " must be positive");
+        }
+        Terms terms = new Terms();
+        List<File> runs = new ArrayList<File>();
+        try {
+            RangeParser.RangeLogIterator iterator = parser.parse(channel, 0, size, 1, null);
+            MappedLineReader lines = new MappedLineReader(channel, 0, size);
+            Set<String> entryTerms = new HashSet<String>();
+            Set<String> previousTerms = new HashSet<String>();
+            long previousOffset = -1;
+            int previousLineNumber = 0;
+            int lineNumber = 0;
+            int entries = 0;
+            while (iterator.hasNext()) {
+                LogEntry logEntry = iterator.next();
+                while (lineNumber < logEntry.lineNumber() && lines.nextLine()) {
+                    lineNumber++;
+                }
+                long offset = lines.lineOffset();
+                entryTerms.clear();
+                tokenize(logEntry.message(), entryTerms);
+                tokenize(logEntry.thread(), entryTerms);
+                tokenize(logEntry.clazz(), entryTerms);
+                if (previousOffset != -1) {
+                    //the entry ends where the next one starts
+                    terms.add(previousTerms, previousOffset, previousLineNumber, offset - previousOffset);
+                    if (terms.memory > maxMemory) {
+                        runs.add(terms.spill(new File(file.getPath() + ".run" + runs.size())));
+                    }
+                }
+                Set<String> swap = previousTerms;
+                previousTerms = entryTerms;
+                entryTerms = swap;
+                previousOffset = offset;
+                previousLineNumber = logEntry.lineNumber();
+                entries++;
+            }
+            if (previousOffset != -1) {
+                terms.add(previousTerms, previousOffset, previousLineNumber, size - previousOffset);
+            }
+            List<Run> sources = new ArrayList<Run>(runs.size() + 1);
+            for (File run : runs) {
+                sources.add(new FileRun(sources.size(), run));
+            }
+            //the last run is merged from memory
+            sources.add(new MemoryRun(sources.size(), terms));
+            write(source, file, configuration, sources, entries);
+        } finally {
+            for (File run : runs) {
+                if (!run.delete() && run.exists()) {
+                    System.err.println("Cannot delete " + run);
+                }
+            }
+        }
+    }
+
+    /**
+     * The file has the header, the postings of each term, the dictionary (sorted terms with the position of the
+     * postings) and the sample of the dictionary. The positions of the dictionary and of the sample are in the last 16
+     * bytes.
+     */
+    private static void write(File source, File file, String configuration, List<Run> runs, int entries)
+            throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        File dictionary = new File(file.getPath() + ".dictionary");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary),
+                BUFFER_SIZE));
+        try {
+            output.writeLong(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(source.length());
+            output.writeLong(source.lastModified());
+            output.writeLong(LogCache.checksum(source));
+            output.writeUTF(configuration);
+            output.writeInt(entries);
+            long position = output.size();
+            //the dictionary is written to another file while the postings are merged, and appended in the end
+            List<String> sampleTerms = new ArrayList<String>();
+            List<Long> sampleOffsets = new ArrayList<Long>();
+            //DataOutputStream.size() is an int
+            CountingOutputStream dictionaryStream = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(dictionary), BUFFER_SIZE));
+            DataOutputStream dictionaryOutput = new DataOutputStream(dictionaryStream);
+            try {
+                PriorityQueue<Run> heap = new PriorityQueue<Run>(runs.size());
+                for (Run run : runs) {
+                    if (run.next()) {
+                        heap.add(run);
+                    }
+                }
+                Merged merged = new Merged();
+                int terms = 0;
+                while (!heap.isEmpty()) {
+                    Run run = heap.poll();
+                    merged.reset(run.term);
+                    merged.append(run);
+                    if (run.next()) {
+                        heap.add(run);
+                    }
+                    //the same term in the following runs (the runs are in the file order)
+                    while (!heap.isEmpty() && heap.peek().term.equals(merged.term)) {
+                        run = heap.poll();
+                        merged.append(run);
+                        if (run.next()) {
+                            heap.add(run);
+                        }
+                    }
+                    if (terms++ % SAMPLE_INTERVAL == 0) {
+                        sampleTerms.add(merged.term);
+                        sampleOffsets.add(dictionaryStream.count);
+                    }
+                    output.write(merged.block.bytes, 0, merged.block.length);
+                    dictionaryOutput.writeUTF(merged.term);
+                    dictionaryOutput.writeLong(position);
+                    dictionaryOutput.writeInt(merged.block.length);
+                    dictionaryOutput.writeInt(merged.count);
+                    position += merged.block.length;
+                }
+            } finally {
+                dictionaryOutput.close();
+                for (Run run : runs) {
+                    run.close();
+                }
+            }
+            long dictionaryOffset = position;
+            copy(dictionary, output);
+            long sampleOffset = dictionaryOffset + dictionaryStream.count;
+            output.writeInt(sampleTerms.size());
+            for (int i = 0; i < sampleTerms.size(); ++i) {
+                output.writeUTF(sampleTerms.get(i));
+                output.writeLong(dictionaryOffset + sampleOffsets.get(i));
+            }
+            output.writeLong(dictionaryOffset);
+            output.writeLong(sampleOffset);
+        } finally {
+            output.close();
+            if (!dictionary.delete() && dictionary.exists()) {
+                System.err.println("Cannot delete " + dictionary);
+            }
+        }
+        if (!file.delete() && file.exists() || !temporary.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    private static void copy(File file, DataOutputStream output) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static TokenIndex open(File file, File source, String configuration) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.readLong() != MAGIC || input.readInt() != VERSION || input.readLong() != source.length() ||
+                    input.readLong() != source.lastModified() || input.readLong() != LogCache.checksum(source) ||
+                    !input.readUTF().equals(configuration)) {
+                return null;
+            }
+            int entries = input.readInt();
+            long headerEnd = input.getFilePointer();
+            long footer = input.length() - 16;
+            if (footer < headerEnd) {
+                throw new IOException("Truncated index " + file);
+            }
+            input.seek(footer);
+            long dictionaryOffset = input.readLong();
+            long sampleOffset = input.readLong();
+            if (dictionaryOffset < headerEnd || sampleOffset < dictionaryOffset || sampleOffset > footer) {
+                throw new IOException("Corrupted index " + file);
+            }
+            input.seek(sampleOffset);
+            DataInputStream sample = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(input.getChannel()), BUFFER_SIZE));
+            int size = sample.readInt();
+            if (size < 0 || size > footer - sampleOffset) {
+                throw new IOException("Corrupted index " + file);
+            }
+            String[] sampleTerms = new String[size];
+            long[] sampleOffsets = new long[size];
+            for (int i = 0; i < size; ++i) {
+                sampleTerms[i] = sample.readUTF();
+                sampleOffsets[i] = sample.readLong();
+                if (sampleOffsets[i] < (i == 0 ? dictionaryOffset : sampleOffsets[i - 1] + 1) ||
+                        sampleOffsets[i] >= sampleOffset) {
+                    throw new IOException("Corrupted index " + file);
+                }
+            }
+            return new TokenIndex(file, entries, sampleTerms, sampleOffsets, sampleOffset);
+        } catch (EOFException e) {
+            throw new IOException("Truncated index " + file, e);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return the postings of each term (sorted), or an empty list if a term does not exist
+     */
+    private List<Postings> readPostings(TreeSet<String> terms) throws IOException {
+        List<Postings> result = new ArrayList<Postings>(terms.size());
+        if (terms.isEmpty()) {
+            return result;
+        }
+        long[] positions = new long[terms.size()];
+        int[] lengths = new int[terms.size()];
+        int[] counts = new int[terms.size()];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            int found = 0;
+            for (String term : terms) {
+                //the dictionary block that may have the term: the last sample before it
+                int sample = Arrays.binarySearch(sampleTerms, term);
+                if (sample < 0) {
+                    sample = -sample - 2;
+                    if (sample < 0) {
+                        //term does not exist
+                        return result;
+                    }
+                }
+                long start = sampleOffsets[sample];
+                long end = sample + 1 < sampleOffsets.length ? sampleOffsets[sample + 1] : dictionaryEnd;
+                byte[] block = new byte[(int) (end - start)];
+                randomAccessFile.seek(start);
+                randomAccessFile.readFully(block);
+                DataInputStream input = new DataInputStream(new ByteArrayInputStream(block));
+                int compare = -1;
+                while (compare < 0 && input.available() > 0) {
+                    compare = input.readUTF().compareTo(term);
+                    positions[found] = input.readLong();
+                    lengths[found] = input.readInt();
+                    counts[found] = input.readInt();
+                }
+                if (compare != 0) {
+                    //term does not exist
+                    return result;
+                }
+                found++;
+            }
+            for (int i = 0; i < found; ++i) {
+                Postings postings = new Postings();
+                postings.block.length = lengths[i];
+                postings.block.bytes = new byte[lengths[i]];
+                randomAccessFile.seek(positions[i]);
+                randomAccessFile.readFully(postings.block.bytes);
+                postings.decode(counts[i]);
+                result.add(postings);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the entries in all the postings
+     */
+    private static Postings intersect(List<Postings> postingsList) {
+        Postings result = new Postings();
+        if (postingsList.isEmpty()) {
+            return result;
+        }
+        Postings smallest = postingsList.get(0);
+        for (Postings postings : postingsList) {
+            if (postings.size < smallest.size) {
+                smallest = postings;
+            }
+        }
+        result.allocate(smallest.size);
+        for (int i = 0; i < smallest.size; ++i) {
+            boolean all = true;
+            for (int j = 0; j < postingsList.size() && all; ++j) {
+                Postings other = postingsList.get(j);
+                all = other == smallest || Arrays.binarySearch(other.offsets, 0, other.size, smallest.offsets[i]) >= 0;
+            }
+            if (all) {
+                result.offsets[result.size] = smallest.offsets[i];
+                result.lineNumbers[result.size] = smallest.lineNumbers[i];
+                result.lengths[result.size] = smallest.lengths[i];
+                result.size++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The entries of a term: encoded while building the index, decoded while searching.
+     */
+    private static class Postings {
+        private LogCache.Block block = new LogCache.Block(16);
+        private long lastOffset;
+        private int lastLineNumber;
+        private int count;
+        private long[] offsets;
+        private int[] lineNumbers;
+        private long[] lengths;
+        private int size;
+
+        private void add(long offset, int lineNumber, long length) {
+            block.writeVarLong(offset - lastOffset);
+            block.writeVarLong(lineNumber - lastLineNumber);
+            block.writeVarLong(length);
+            lastOffset = offset;
+            lastLineNumber = lineNumber;
+            count++;
+        }
+
+        private void allocate(int capacity) {
+            offsets = new long[capacity];
+            lineNumbers = new int[capacity];
+            lengths = new long[capacity];
+        }
+
+        private void decode(int count) {
+            allocate(count);
+            long offset = 0;
+            int lineNumber = 0;
+            block.position = 0;
+            for (int i = 0; i < count; ++i) {
+                offset += block.readVarLong();
+                lineNumber += (int) block.readVarLong();
+                offsets[i] = offset;
+                lineNumbers[i] = lineNumber;
+                lengths[i] = block.readVarLong();
+            }
+            size = count;
+        }
+    }
+
+    /**
+     * The postings of the terms in memory, while building.
+     */
+    private static class Terms {
+        private final Map<String, Postings> postings = new HashMap<String, Postings>();
+        private long memory;
+
+        private void add(Set<String> entryTerms, long offset, int lineNumber, long length) {
+            for (String term : entryTerms) {
+                Postings termPostings = postings.get(term);
+                if (termPostings == null) {
+                    termPostings = new Postings();
+                    postings.put(term, termPostings);
+                    memory += TERM_OVERHEAD + 2 * term.length();
+                }
+                int capacity = termPostings.block.bytes.length;
+                termPostings.add(offset, lineNumber, length);
+                memory += termPostings.block.bytes.length - capacity;
+            }
+        }
+
+        private String[] sortedTerms() {
+            String[] terms = postings.keySet().toArray(new String[postings.size()]);
+            Arrays.sort(terms);
+            return terms;
+        }
+
+        /**
+         * Writes the postings, sorted by term, to the {@code run} file and clears them.
+         */
+        private File spill(File run) throws IOException {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run),
+                    BUFFER_SIZE));
+            try {
+                String[] terms = sortedTerms();
+                output.writeInt(terms.length);
+                for (String term : terms) {
+                    Postings termPostings = postings.get(term);
+                    output.writeUTF(term);
+                    output.writeInt(termPostings.count);
+                    output.writeLong(termPostings.lastOffset);
+                    output.writeInt(termPostings.lastLineNumber);
+                    output.writeInt(termPostings.block.length);
+                    output.write(termPostings.block.bytes, 0, termPostings.block.length);
+                }
+            } finally {
+                output.close();
+            }
+            postings.clear();
+            memory = 0;
+            return run;
+        }
+    }
+
+    /**
+     * The postings of part of the file, sorted by term. The postings of a run are encoded as if the run were the
+     * whole file (the first entry is delta encoded from zero).
+     */
+    private abstract static class Run implements Comparable<Run> {
+        //the runs are merged in the file order
+        private final int index;
+        String term;
+        int count;
+        long lastOffset;
+        int lastLineNumber;
+        LogCache.Block block;
+
+        /**
+         * @return {@code true} if it moved to the next term, {@code false} if it has no more terms
+         */
+        abstract boolean next() throws IOException;
+
+        Run(int index) {
+            this.index = index;
+        }
+
+        void close() throws IOException {
+            //no-op by default
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            int compare = term.compareTo(o.term);
+            return compare != 0 ? compare : (index < o.index ? -1 : (index == o.index ? 0 : 1));
+        }
+    }
+
+    private static class MemoryRun extends Run {
+        private final Terms terms;
+        private final String[] sorted;
+        private int next;
+
+        private MemoryRun(int index, Terms terms) {
+            super(index);
+            this.terms = terms;
+            this.sorted = terms.sortedTerms();
+        }
+
+        @Override
+        boolean next() {
+            if (next == sorted.length) {
+                return false;
+            }
+            term = sorted[next++];
+            Postings postings = terms.postings.get(term);
+            count = postings.count;
+            lastOffset = postings.lastOffset;
+            lastLineNumber = postings.lastLineNumber;
+            block = postings.block;
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run {
+        private final DataInputStream input;
+        private int remaining;
+
+        private FileRun(int index, File file) throws IOException {
+            super(index);
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            remaining = input.readInt();
+            block = new LogCache.Block(16);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            term = input.readUTF();
+            count = input.readInt();
+            lastOffset = input.readLong();
+            lastLineNumber = input.readInt();
+            block.read(input, input.readInt());
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * The postings of a term, appended from the runs.
+     */
+    private static class Merged {
+        private final LogCache.Block block = new LogCache.Block(1024);
+        private String term;
+        private int count;
+        private long lastOffset;
+        private int lastLineNumber;
+
+        private void reset(String term) {
+            this.term = term;
+            block.length = 0;
+            count = 0;
+            lastOffset = 0;
+            lastLineNumber = 0;
+        }
+
+        private void append(Run run) {
+            if (count == 0) {
+                block.write(run.block.bytes, 0, run.block.length);
+            } else {
+                //the first entry of the run is encoded from zero: encode it from the last entry
+                run.block.position = 0;
+                long offset = run.block.readVarLong();
+                long lineNumber = run.block.readVarLong();
+                long length = run.block.readVarLong();
+                block.writeVarLong(offset - lastOffset);
+                block.writeVarLong(lineNumber - lastLineNumber);
+                block.writeVarLong(length);
+                block.write(run.block.bytes, run.block.position, run.block.length - run.block.position);
+            }
+            count += run.count;
+            lastOffset = run.lastOffset;
+            lastLineNumber = run.lastLineNumber;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
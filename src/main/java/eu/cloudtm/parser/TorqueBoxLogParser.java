@@ -1,16 +1,19 @@
 package eu.cloudtm.parser;
 
 import eu.cloudtm.LogEntry;
+import eu.cloudtm.SymbolTable.Symbol;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.NoSuchElementException;
 
+import static eu.cloudtm.SymbolTable.CLASSES;
+import static eu.cloudtm.SymbolTable.LEVELS;
+import static eu.cloudtm.SymbolTable.THREADS;
+
 /**
  * @author Pedro Ruivo
  * @since 1.0
@@ -18,7 +21,7 @@ import java.util.NoSuchElementException;
 public class TorqueBoxLogParser implements Parser {
     //format: time{h:m:s,S} level [class] (thread) message
 
-    private static final DateFormat TIMESTAMP_PARSER = new SimpleDateFormat("HH:mm:ss,SSS");
+    private static final TimestampDecoder TIMESTAMP_DECODER = new TimestampDecoder();
 
     @Override
     public final LogIterator parse(InputStream inputStream) throws Exception {
@@ -36,55 +39,57 @@ public class TorqueBoxLogParser implements Parser {
 
     private long parseTimeStamp(LineState state) throws ParseException {
         assertHasNext(state);
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ' ') {
-            builder.append(c);
+        int start = state.nextPosition;
+        long timestamp = TIMESTAMP_DECODER.decodeTime(state.array, start, state.skipToken(' '));
+        if (timestamp == TimestampDecoder.INVALID) {
+            throw new ParseException("Unparseable time. State=" + state, start);
         }
-        return TIMESTAMP_PARSER.parse(builder.toString()).getTime();
+        return timestamp;
     }
 
-    private String parseLevel(LineState state) {
+    private Symbol parseLevel(LineState state) {
         assertHasNext(state);
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ' ') {
-            builder.append(c);
+        int start = state.nextPosition;
+        int end = state.skipToken(' ');
+        //trim
+        while (start < end && state.array[start] <= ' ') {
+            start++;
         }
-        return builder.toString().trim();
+        while (end > start && state.array[end - 1] <= ' ') {
+            end--;
+        }
+        return LEVELS.intern(state.array, start, end);
     }
 
-    private String parseClass(LineState state) {
+    private Symbol parseClass(LineState state) {
         assertHasNext(state);
         assertNextChar(state, '[');
-        StringBuilder builder = new StringBuilder();
-        char c;
-        while (state.hasNext() && (c = state.next()) != ']') {
-            builder.append(c);
-        }
+        int start = state.nextPosition;
+        int end = state.skipToken(']');
         state.skip(1); //skip space
-        return builder.toString();
+        return CLASSES.intern(state.array, start, end);
     }
 
-    private String parseThread(LineState state) {
+    private Symbol parseThread(LineState state) {
         assertHasNext(state);
         assertNextChar(state, '(');
         int level = 0;
-        StringBuilder builder = new StringBuilder();
+        int start = state.nextPosition;
+        int end = state.array.length;
         char c;
         while (state.hasNext()) {
             c = state.next();
             if (level == 0 && c == ')') {
+                end = state.nextPosition - 1;
                 break;
             } else if (c == '(') {
                 level++;
             } else if (c == ')') {
                 level--;
             }
-            builder.append(c);
         }
         state.skip(1); //skip space
-        return builder.toString();
+        return THREADS.intern(state.array, start, end);
     }
 
     private String parseMessage(LineState state) {
@@ -141,6 +146,20 @@ public class TorqueBoxLogParser implements Parser {
             nextPosition += chars;
         }
 
+        /**
+         * Moves to the char after the {@code delimiter} (or the end of line).
+         *
+         * @return the position of the delimiter (or the end of line)
+         */
+        public final int skipToken(char delimiter) {
+            int index = nextPosition;
+            while (index < array.length && array[index] != delimiter) {
+                index++;
+            }
+            nextPosition = index < array.length ? index + 1 : array.length;
+            return index;
+        }
+
         @Override
         public String toString() {
             return "LineState{" +
@@ -155,15 +174,24 @@ public class TorqueBoxLogParser implements Parser {
         private final BufferedReader bufferedReader;
         private String currentLine;
         private int lineNumber;
+        private boolean consumed;
 
         private LogEntryIterator(InputStream inputStream) throws IOException {
             this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
             this.lineNumber = 0;
             nextLine();
+            this.consumed = false;
         }
 
+        /**
+         * The next line is only read when needed, so that a log still being written is not read ahead.
+         */
         @Override
-        public final boolean hasNext() {
+        public final boolean hasNext() throws IOException {
+            if (consumed) {
+                nextLine();
+                consumed = false;
+            }
             return currentLine != null && !currentLine.isEmpty();
         }
 
@@ -172,9 +200,8 @@ public class TorqueBoxLogParser implements Parser {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            LogEntry entry = parseLine(lineNumber, currentLine);
-            nextLine();
-            return entry;
+            consumed = true;
+            return parseLine(lineNumber, currentLine);
         }
 
         private void nextLine() throws IOException {
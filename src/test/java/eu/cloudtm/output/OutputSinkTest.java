@@ -0,0 +1,187 @@
+package eu.cloudtm.output;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Pedro Ruivo
+ * @since 1.0
+ */
+public class OutputSinkTest {
+
+    private static final int BUFFER_SIZE = 16;
+
+    /**
+     * A write completed after the writer thread's idle poll timed out queues a full buffer: the partial buffer must not
+     * be written before it.
+     */
+    @Test(timeout = 60000)
+    public void testPartialChunkAfterHandOff() throws Exception {
+        GatedStream stream = new GatedStream();
+        OutputSink sink = new OutputSink(stream, true, BUFFER_SIZE, "test");
+        long position = write(sink, 0, BUFFER_SIZE);
+        //the writer thread is writing the first buffer
+        stream.entered.await();
+        position = write(sink, position, BUFFER_SIZE + 5);
+        assertNull("Partial buffer taken before the full buffer", sink.takePartialChunk());
+        stream.gate.countDown();
+        sink.close();
+        assertTrue(stream.closed);
+        assertEquals(position, stream.count);
+        assertFalse("Bytes out of order at " + stream.error, stream.error >= 0);
+    }
+
+    /**
+     * A write waiting for a free buffer holds the lock: the writer thread must not wait for it.
+     */
+    @Test(timeout = 60000)
+    public void testPartialChunkDuringBlockedWrite() throws Exception {
+        GatedStream stream = new GatedStream();
+        final OutputSink sink = new OutputSink(stream, true, BUFFER_SIZE, "test");
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                write(sink, 0, BUFFER_SIZE * 8);
+            }
+        };
+        writer.start();
+        stream.entered.await();
+        //the writer thread is writing the first buffer and the other buffers are full
+        while (writer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertNull(sink.takePartialChunk());
+        stream.gate.countDown();
+        writer.join();
+        sink.close();
+        assertEquals(BUFFER_SIZE * 8, stream.count);
+        assertFalse("Bytes out of order at " + stream.error, stream.error >= 0);
+    }
+
+    /**
+     * The writes of concurrent threads are not interleaved and the partial buffer is written when idle.
+     */
+    @Test(timeout = 60000)
+    public void testConcurrentWrites() throws Exception {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final OutputSink sink = new OutputSink(stream, false, 1024, "test");
+        final int records = 2000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; ++t) {
+            final byte value = (byte) ('a' + t);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < records; ++i) {
+                        byte[] record = new byte[1 + i % 3000];
+                        for (int j = 0; j < record.length - 1; ++j) {
+                            record[j] = value;
+                        }
+                        record[record.length - 1] = '\n';
+                        sink.write(record, 0, record.length);
+                        if (i % 500 == 0) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(120));
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.close();
+        String output = stream.toString("US-ASCII");
+        String[] lines = output.split("\n", -1);
+        assertEquals(4 * records + 1, lines.length);
+        for (int i = 0; i < lines.length - 1; ++i) {
+            for (int j = 1; j < lines[i].length(); ++j) {
+                if (lines[i].charAt(j) != lines[i].charAt(0)) {
+                    fail("Interleaved write at line " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIdleFlush() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(stream, false, 1024, "test");
+        sink.write(new byte[]{'x'}, 0, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (stream.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, stream.size());
+        sink.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWriteAfterClose() throws Exception {
+        OutputSink sink = new OutputSink(new ByteArrayOutputStream(), false, 1024, "test");
+        sink.close();
+        sink.write(new byte[1], 0, 1);
+    }
+
+    private static long write(OutputSink sink, long position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = (byte) (position + i);
+        }
+        sink.write(bytes, 0, length);
+        return position + length;
+    }
+
+    /**
+     * Blocks the writes until the gate is opened and checks that the bytes are a sequence (the byte at position i is
+     * {@code (byte) i}).
+     */
+    private static class GatedStream extends OutputStream {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private volatile long count;
+        private volatile long error = -1;
+        private volatile boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            for (int i = 0; i < len; ++i) {
+                if (b[off + i] != (byte) (count + i) && error < 0) {
+                    error = count + i;
+                }
+            }
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}